@@ -0,0 +1,27 @@
+plugins {
+    id("java")
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    // The benchmarks run against the TNT classes themselves
+    jmhImplementation(rootProject)
+    // & on the same synthetic NORI data the tests use
+    jmhImplementation(testFixtures(rootProject))
+}
+
+jmh {
+    // Short runs by default, use -Pjmh.includes=... to pick benchmarks
+    warmupIterations.set(2)
+    iterations.set(3)
+    fork.set(1)
+    // Allocation rates (gc.alloc.rate & gc.alloc.rate.norm) next to the MB/s
+    profilers.add("gc")
+    if (project.hasProperty("jmh.includes")) {
+        includes.add(project.property("jmh.includes").toString())
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.tricksteronline;/*
+AnalyzerBench.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+/**
+Class Description:
+Benchmark for reading a whole NORI file's structure with the Analyzer: plain,
+RLE compressed, and zlib wrapped (.bac) input, which is inflated first.
+
+Dev Notes:
+Analyzer prints as it goes, so System.out is swapped for a do-nothing stream
+while this runs. Throughput is counted over the bytes of the input file.
+Run with: gradle :bench:jmh -Pjmh.includes=AnalyzerBench
+
+Development Priority: LOW
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AnalyzerBench {
+    @Param({"8", "16", "24"})
+    public int bpp;
+
+    @Param({"nri", "rle", "bac"})
+    public String input;
+
+    @Param({"64x64", "256x256"})
+    public String size;
+
+    public byte[] file;
+    public PrintStream stdout;
+
+    @Setup
+    public void setup() {
+        String[] wh = size.split("x");
+        int w = Integer.parseInt(wh[0]), h = Integer.parseInt(wh[1]);
+        file = Synth.nori(bpp, !input.equals("nri"), 50, w, h, 0.5);
+        if (input.equals("bac")) file = Synth.bac(file);
+        stdout = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {}
+            @Override
+            public void write(byte[] b, int off, int len) {}
+        }));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public NORI analyze(Bytes mb) throws Exception {
+        mb.bytes += file.length;
+        ByteBuffer bb = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+        if (Inflate.isWrapped(bb)) bb = Inflate.inflate(bb);
+        NORI nf = new NORI();
+        nf.name = "synth.nri";
+        new Analyzer(bb, nf);
+        return nf;
+    }
+}
@@ -0,0 +1,37 @@
+package com.github.tricksteronline;/*
+Bytes.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import org.openjdk.jmh.annotations.*;
+/**
+Class Description:
+A JMH counter for the bytes a benchmark works through, so the results can be
+read as MB/s instead of just operations per second.
+
+Dev Notes:
+With @OutputTimeUnit(MICROSECONDS), bytes per microsecond is the same as MB/s,
+so the 'bytes' line of the results is the MB/s figure.
+
+Development Priority: LOW
+*/
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Bytes {
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        bytes = 0;
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.tricksteronline;/*
+JBLBench.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+/**
+Class Description:
+Benchmarks for the Java Bitmap Library steps that turn NORI pixels into a BMP:
+the older step-by-step functions and the single-pass newBMP()/putPixels().
+
+Dev Notes:
+Throughput is counted over the raw input pixel bytes.
+Run with: gradle :bench:jmh -Pjmh.includes=JBLBench
+
+Development Priority: LOW
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JBLBench {
+    @Param({"8", "16", "24"})
+    public int bpp;
+
+    @Param({"64x64", "256x256", "640x480"})
+    public String size;
+
+    public int w, h;
+    public byte[] raw, rgb24, padded;
+    public JBL jbl;
+
+    @Setup
+    public void setup() {
+        String[] wh = size.split("x");
+        w = Integer.parseInt(wh[0]);
+        h = Integer.parseInt(wh[1]);
+        raw = Synth.pixels(bpp, w, h, 0.5, 1);
+        jbl = newJBL(bpp, w, h);
+        rgb24 = jbl.toRGB24(raw);
+        padded = jbl.toStdRGB(raw);
+    }
+
+    // A JBL set up the way Extract sets it up
+    static JBL newJBL(int bpp, int w, int h) {
+        JBL jbl = new JBL();
+        jbl.set16BitFmtIn(JBL.RGB555);
+        jbl.setPalette(JBL.packPalette(new byte[256][3]));
+        jbl.setBmpVars(w, h, bpp);
+        return jbl;
+    }
+
+    @Benchmark
+    public byte[] toRGB24(Bytes mb) {
+        mb.bytes += raw.length;
+        return jbl.toRGB24(raw);
+    }
+
+    @Benchmark
+    public byte[] addPadding(Bytes mb) {
+        mb.bytes += raw.length;
+        return jbl.addPadding(rgb24, 3);
+    }
+
+    @Benchmark
+    public byte[] reverseRows(Bytes mb) {
+        mb.bytes += raw.length;
+        return jbl.reverseRows(padded);
+    }
+
+    // The whole old path: toStdRGB() -> reverseRows() -> setBMP()
+    @Benchmark
+    public byte[] stepByStep(Bytes mb) {
+        mb.bytes += raw.length;
+        return jbl.setBMP(jbl.reverseRows(jbl.toStdRGB(raw)), false);
+    }
+
+    // The single-pass path Extract uses
+    @Benchmark
+    public byte[] singlePass(Bytes mb) {
+        mb.bytes += raw.length;
+        byte[] bmp = jbl.newBMP();
+        jbl.putPixels(raw, 0, bmp, 0, w * h);
+        return bmp;
+    }
+}
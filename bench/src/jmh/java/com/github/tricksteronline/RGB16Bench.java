@@ -0,0 +1,126 @@
+package com.github.tricksteronline;/*
+RGB16Bench.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+/**
+Class Description:
+Benchmark for the 16-bit to 24-bit pixel conversion: the lookup tables JBL uses
+now, against the per-pixel shifts and masks it used before.
+
+Dev Notes:
+The input is a synthetic 16-bit sprite sheet: mostly RGB555 magenta background
+with blocks of random foreground, which is what the NORI sprites look like.
+Run with: gradle :bench:jmh -Pjmh.includes=RGB16Bench
+
+Development Priority: LOW
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RGB16Bench {
+    @Param({"RGB555", "RGB565", "ARGB16"})
+    public String fmt;
+
+    @Param({"128x128", "640x480"})
+    public String size;
+
+    public int w, h, pixels;
+    public byte[] raw, px;
+    public JBL jbl;
+
+    @Setup
+    public void setup() {
+        String[] wh = size.split("x");
+        w = Integer.parseInt(wh[0]);
+        h = Integer.parseInt(wh[1]);
+        pixels = w * h;
+        raw = new byte[pixels * 2];
+        px = new byte[pixels * 3];
+        Random rnd = new Random(16);
+        for (int i = 0; i < pixels; i++) {
+            // about a third of each scanline is foreground
+            if ((i % w) % 3 == 0) {
+                raw[i * 2] = (byte)rnd.nextInt();
+                raw[i * 2 + 1] = (byte)rnd.nextInt();
+            } else {
+                raw[i * 2] = 0x1F;
+                raw[i * 2 + 1] = 0x7C;
+            }
+        }
+        jbl = new JBL();
+        jbl.set16BitFmtIn(fmt);
+        jbl.setBmpVars(w, h, 16);
+    }
+
+    // The table lookup JBL.to24() does now
+    @Benchmark
+    public byte[] lookupTable(Bytes mb) {
+        mb.bytes += raw.length;
+        jbl.to24(raw, 0, px, 0, pixels);
+        return px;
+    }
+
+    // What JBL.toRGB24() did before, recomputed for every pixel
+    @Benchmark
+    public byte[] arithmetic(Bytes mb) {
+        mb.bytes += raw.length;
+        if (fmt.equals(JBL.RGB555)) {
+            for (int i = 0; i < pixels; i++) {
+                int x = i * 2, y = i * 3;
+                byte b1 = raw[x], b2 = raw[x + 1];
+                int b = (b1 & 0x1F) << 3;
+                int g = ((b2 & 0x03) << 6) | ((b1 & 0xE0) >> 2);
+                int r = (b2 & 0x7C) << 1;
+                r = r | r >> 5;
+                g = g | g >> 5;
+                b = b | b >> 5;
+                px[y] = (byte)b;
+                px[y + 1] = (byte)g;
+                px[y + 2] = (byte)r;
+            }
+        } else if (fmt.equals(JBL.RGB565)) {
+            for (int i = 0; i < pixels; i++) {
+                int x = i * 2, y = i * 3;
+                byte b1 = raw[x], b2 = raw[x + 1];
+                int b = (b1 & 0x1F) << 3;
+                int g = ((b2 & 0x07) << 5) | ((b1 & 0xE0) >> 3);
+                int r = (b2 & 0xF8);
+                r = r | r >> 5;
+                g = g | g >> 6;
+                b = b | b >> 5;
+                px[y] = (byte)b;
+                px[y + 1] = (byte)g;
+                px[y + 2] = (byte)r;
+            }
+        } else {
+            for (int i = 0; i < pixels; i++) {
+                int x = i * 2, y = i * 3;
+                byte b1 = raw[x], b2 = raw[x + 1];
+                int r = (b2 & 0x0F) << 4;
+                int g = (b1 & 0xF0);
+                int b = (b1 & 0x0F) << 4;
+                r = r | r >> 4;
+                g = g | g >> 4;
+                b = b | b >> 4;
+                px[y] = (byte)b;
+                px[y + 1] = (byte)g;
+                px[y + 2] = (byte)r;
+            }
+        }
+        return px;
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.tricksteronline;/*
+RLEBench.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.nio.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+/**
+Class Description:
+Benchmark for Extract's RLE decompression & Create's RLE compression, over bit depth, bitmap size and how
+much of each scanline is foreground.
+
+Dev Notes:
+Throughput is counted over the encoded bytes, read or made.
+Run with: gradle :bench:jmh -Pjmh.includes=RLEBench
+
+Development Priority: LOW
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RLEBench {
+    @Param({"8", "16", "24"})
+    public int bpp;
+
+    @Param({"64x64", "640x480"})
+    public String size;
+
+    @Param({"0.1", "0.5", "0.9"})
+    public double density;
+
+    public byte[] raw, encoded;
+    public int w, h;
+    public JBL jbl;
+
+    @Setup
+    public void setup() {
+        String[] wh = size.split("x");
+        w = Integer.parseInt(wh[0]);
+        h = Integer.parseInt(wh[1]);
+        raw = Synth.pixels(bpp, w, h, density, 1);
+        encoded = Synth.rle(raw, bpp, w, h);
+        jbl = JBLBench.newJBL(bpp, w, h);
+    }
+
+    @Benchmark
+    public ByteBuffer decompress(Bytes mb) {
+        mb.bytes += encoded.length;
+        ByteBuffer px = jbl.newPixels();
+        Extract.decompress(encoded, 0, encoded.length, px, jbl);
+        return px;
+    }
+
+    @Benchmark
+    public byte[] compress(Bytes mb) {
+        mb.bytes += encoded.length;
+        return Create.compress(raw, w, h, bpp / 8);
+    }
+}
@@ -1,5 +1,7 @@
 plugins {
     id("java")
+    // Synth, the NORI data the tests & the benchmarks are made from
+    id("java-test-fixtures")
 }
 
 group = "com.github.tricksteronline"
@@ -13,6 +15,15 @@ dependencies {
 
 }
 
+testing {
+    suites {
+        // Same JUnit as the app module, so nothing new has to be fetched
+        val test by getting(JvmTestSuite::class) {
+            useJUnitJupiter("5.7.2")
+        }
+    }
+}
+
 tasks.withType<Jar> {
     manifest {
         attributes["Main-Class"] = "com.github.tricksteronline.Main"
@@ -10,3 +10,4 @@
 
 rootProject.name = "TNT"
 include("app")
+include("bench")
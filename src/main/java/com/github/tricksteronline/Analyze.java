@@ -18,11 +18,9 @@ import com.github.tricksteronline.NORI;
 import java.io.*;
 import java.nio.*;
 import java.nio.file.*;
-import javax.xml.parsers.*;
-import javax.xml.transform.*;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import org.w3c.dom.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import javax.xml.stream.*;
 import static java.lang.System.out;
 /**
 Class Description:
@@ -33,221 +31,277 @@ Dev Notes:
 The xml config code here isn't entirely user friendly but that's not really my
 fault. It's just the way the standard libs for xml are. Plus, the program is
 handling a huge amount of data in single file so I think it is decent.
+The config is streamed out element by element, no DOM tree in memory, so the
+indenting is done by hand. It comes out the same as the old DOM output did.
 
 Development Priority: HIGH
 */
 public class Analyze {
     // class variables
+    // write a binary config (.ncb) instead of the xml one & its .bin files
+    public static boolean binCfg=false;
+    private NORI nf;
+    private XMLStreamWriter xw;
+    private int depth=0;
+    private String[] indents = new String[6];
+    private static final String NL = System.lineSeparator();
 
     // constructor for Analyze class
-    public Analyze(byte[] ba, boolean createConfig) {
+    public Analyze(NORI nori, ByteBuffer bb, boolean createConfig) {
+        nf = nori;
         try {
-            // Wraps byte array in litte-endian bytebuffer
-            ByteBuffer bb = ByteBuffer.wrap(ba).order(ByteOrder.LITTLE_ENDIAN);
-            // Analyze the file
-            Analyzer a = new Analyzer(bb);
+            // Analyze the file, unless the cache already did
+            if (!nf.analyzed) new Analyzer(bb, nf);
 
             // make NORI config file
-            if (createConfig) {
-                writeCfg();
-                File xfbFile = new File(NORI.dir +"xfb"+ NORI.noriVer +".bin");
-                Files.write(xfbFile.toPath(), NORI.xfb);
-                if (NORI.hasPalette ==1) {
-                    File palFile = new File(NORI.dir + NORI.name +"_pal.bin");
-                    Files.write(palFile.toPath(), NORI.pb);
-                }
-            }
+            if (createConfig) saveConfig(binCfg);
         }
         catch(Exception ex) {
             out.println("Error in (OptA):\n"+ex);
+            // Let the caller know this file failed, so it can move on
+            throw new IllegalStateException(nf.name, ex);
+        }
+    }
+
+    // For writing the config of an already filled NORI object (conversion)
+    private Analyze(NORI nori) {
+        nf = nori;
+    }
+
+    // Write the config for nf, either the binary or the xml kind
+    public static void writeConfig(NORI nf, boolean binary) throws IOException {
+        new Analyze(nf).saveConfig(binary);
+    }
+
+    private void saveConfig(boolean binary) throws IOException {
+        if (binary) {
+            BinCfg.write(nf, new File(nf.dir + nf.name + BinCfg.EXT));
+            return;
+        }
+        writeCfg();
+        File xfbFile = new File(nf.dir +"xfb"+ nf.noriVer +".bin");
+        Files.write(xfbFile.toPath(), nf.xfb);
+        if (nf.hasPalette ==1) {
+            File palFile = new File(nf.dir + nf.name +"_pal.bin");
+            Files.write(palFile.toPath(), nf.pb);
         }
     }
 
     // Prepare and write NORI config file
-    private static void writeCfg() {
-        try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder docBuilder = dbf.newDocumentBuilder();
-            Document cfg = docBuilder.newDocument();
+    private void writeCfg() {
+        File config = new File(nf.dir + nf.name +".cfg");
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(config));
+             Writer w = new OutputStreamWriter(os, StandardCharsets.UTF_8)) {
+            // XMLStreamWriter can't do standalone="no", so that's written first
+            w.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+            xw = XMLOutputFactory.newInstance().createXMLStreamWriter(w);
+            depth = 0;
             // Root Element
-            Element root = cfg.createElement("NORI");
-            root.setAttribute("name", NORI.name);
-            cfg.appendChild(root);
+            start("NORI");
+            xw.writeAttribute("name", nf.name);
             // NORI Header Elements
-            Element noriHdr = cfg.createElement("NORI_HDR");
-            root.appendChild(noriHdr);
-            // NORI Header SubElements
-            setNoriHdrVars(cfg, noriHdr);
+            start("NORI_HDR");
+            setNoriHdrVars();
+            end();
             // GAWI Elements
-            Element gawi = cfg.createElement("GAWI");
-            root.appendChild(gawi);
+            start("GAWI");
             // GAWI Header Elements
-            Element gawiHdr = cfg.createElement("GAWI_HDR");
-            gawi.appendChild(gawiHdr);
-            // NORI Header SubElements
-            setGawiHdrVars(cfg, gawiHdr);
+            start("GAWI_HDR");
+            setGawiHdrVars();
+            end();
             // Palette Elements
-            if (NORI.hasPalette == 1) {
-                Element pal = cfg.createElement("PAL");
-                gawi.appendChild(pal);
-                setPaletteVars(cfg, pal);
+            if (nf.hasPalette == 1) {
+                start("PAL");
+                setPaletteVars();
+                end();
             }
             // BMP Offset Elements
-            for (int i = 0; i < NORI.numBMP; i++) {
-                Element bmpOff = cfg.createElement("bmpOffset");
-                bmpOff.setAttribute("id","" + i);
-                bmpOff.appendChild(cfg.createTextNode("" + NORI.bmpOffsets[i]));
-                gawi.appendChild(bmpOff);
+            for (int i = 0; i < nf.numBMP; i++) {
+                mkSubElement("bmpOffset", i, nf.bmpOffsets[i]);
             }
             // BMP Data Elements
-            for (int i = 0; i < NORI.numBMP; i++) {
-                Element bmp = cfg.createElement("BMP");
-                bmp.setAttribute("id","" + i);
-                bmp.setAttribute("offset", NORI.bmpOffsets[i] + "+" + NORI.bpos);
-                gawi.appendChild(bmp);
+            for (int i = 0; i < nf.numBMP; i++) {
+                start("BMP");
+                xw.writeAttribute("id","" + i);
+                xw.writeAttribute("offset", nf.bmpOffsets[i] + "+" + nf.bpos);
                 // BMP SubElements
-                setBmpSpecs(cfg, bmp, i);
-                Element bmpData = cfg.createElement("RGB"+ NORI.bpp +"DATA");
-                bmp.appendChild(bmpData);
+                setBmpSpecs(i);
+                empty("RGB"+ nf.bpp +"DATA");
+                end();
             }
+            end();
             // Animation Offset Elements
-            for (int i = 0; i < NORI.anims; i++) {
-                Element animOff = cfg.createElement("animOffset");
-                animOff.setAttribute("id",""+i);
-                animOff.appendChild(cfg.createTextNode(""+ NORI.animOffsets[i]));
-                root.appendChild(animOff);
+            for (int i = 0; i < nf.anims; i++) {
+                mkSubElement("animOffset", i, nf.animOffsets[i]);
             }
             // Animation Data Elements
-            for (int i = 0; i < NORI.anims; i++) {
-                Element anim = cfg.createElement("ANIM");
-                anim.setAttribute("id","" + i);
-                anim.setAttribute("offset", NORI.animOffsets[i] + "+" + NORI.apos);
-                root.appendChild(anim);
+            for (int i = 0; i < nf.anims; i++) {
+                start("ANIM");
+                xw.writeAttribute("id","" + i);
+                xw.writeAttribute("offset", nf.animOffsets[i] + "+" + nf.apos);
                 // Anim SubElements
-                Element name = cfg.createElement("name");
-                name.appendChild(cfg.createTextNode(NORI.animName[i]));
-                anim.appendChild(name);
-                mkSubElement(cfg, anim,"frames", NORI.frames[i]);
-                setFrameOffsets(cfg, anim, i);
+                mkSubElement("name", nf.animName[i]);
+                mkSubElement("frames", nf.frames[i]);
+                setFrameOffsets(i);
                 // Frame Data and SubElements
-                setFrames(cfg, anim, i);
+                setFrames(i);
+                end();
             }
-
-            // Prep xml data
-            TransformerFactory tf = TransformerFactory.newInstance();
-            Transformer t = tf.newTransformer();
-            t.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-            t.setOutputProperty(OutputKeys.INDENT, "yes");
-            String indentAmount = "{http://xml.apache.org/xslt}indent-amount";
-            t.setOutputProperty(indentAmount,"2");
-            // Output xml config file
-            DOMSource src = new DOMSource(cfg);
-            File config = new File(NORI.dir + NORI.name +".cfg");
-            StreamResult file = new StreamResult(config);
-            t.transform(src, file);
+            end();
+            w.write(NL);
+            xw.close();
         }
         catch (Exception ex) {
             out.println("Error in (mkCfg):\n"+ex);
         }
     }
 
-    private static void setNoriHdrVars(Document cfg, Element e) {
-        mkSubElement(cfg, e, "fsig", NORI.fsig);
-        mkSubElement(cfg, e, "noriver", NORI.noriVer);
-        mkSubElement(cfg, e, "nparam1", NORI.nParam1);
-        mkSubElement(cfg, e, "nparam2", NORI.nParam2);
-        mkSubElement(cfg, e, "nparam3", NORI.nParam3);
-        mkSubElement(cfg, e, "nparam4", NORI.nParam4);
-        mkSubElement(cfg, e, "nparam5", NORI.nParam5);
-        mkSubElement(cfg, e, "anims", NORI.anims);
-        mkSubElement(cfg, e, "woGawi", NORI.woGawi);
-        mkSubElement(cfg, e, "fsize", NORI.fsize);
-    }
-
-    private static void setGawiHdrVars(Document cfg, Element e) {
-        mkSubElement(cfg, e, "gsig", NORI.gsig);
-        mkSubElement(cfg, e, "gawiver", NORI.gawiVer);
-        mkSubElement(cfg, e, "bpp", NORI.bpp);
-        mkSubElement(cfg, e, "compressed", NORI.compressed);
-        mkSubElement(cfg, e, "hasPalette", NORI.hasPalette);
-        mkSubElement(cfg, e, "gparam4", NORI.gParam4);
-        mkSubElement(cfg, e, "gparam5", NORI.gParam5);
-        mkSubElement(cfg, e, "gparam6", NORI.gParam6);
-        mkSubElement(cfg, e, "gparam7", NORI.gParam7);
-        mkSubElement(cfg, e, "numBMP", NORI.numBMP);
-        mkSubElement(cfg, e, "gsize", NORI.gsize);
-    }
-
-    private static void setPaletteVars(Document cfg, Element e) {
-        mkSubElement(cfg, e, "psig", NORI.psig);
-        mkSubElement(cfg, e, "palver", NORI.palVer);
-        mkSubElement(cfg, e, "pparam1", NORI.pParam1);
-        mkSubElement(cfg, e, "pparam2", NORI.pParam2);
-        mkSubElement(cfg, e, "pparam3", NORI.pParam3);
-        mkSubElement(cfg, e, "pparam4", NORI.pParam4);
-        mkSubElement(cfg, e, "divided", NORI.divided);
-        mkSubElement(cfg, e, "psize", NORI.psize);
-        Element palData = cfg.createElement("RGB24DATA");
-        e.appendChild(palData);
-        if (NORI.psize == 808) {
-            mkSubElement(cfg, e,"mainS", NORI.mainS);
-            mkSubElement(cfg, e,"mainE", NORI.mainE);
+    private void setNoriHdrVars() throws XMLStreamException {
+        mkSubElement("fsig", nf.fsig);
+        mkSubElement("noriver", nf.noriVer);
+        mkSubElement("nparam1", nf.nParam1);
+        mkSubElement("nparam2", nf.nParam2);
+        mkSubElement("nparam3", nf.nParam3);
+        mkSubElement("nparam4", nf.nParam4);
+        mkSubElement("nparam5", nf.nParam5);
+        mkSubElement("anims", nf.anims);
+        mkSubElement("woGawi", nf.woGawi);
+        mkSubElement("fsize", nf.fsize);
+    }
+
+    private void setGawiHdrVars() throws XMLStreamException {
+        mkSubElement("gsig", nf.gsig);
+        mkSubElement("gawiver", nf.gawiVer);
+        mkSubElement("bpp", nf.bpp);
+        mkSubElement("compressed", nf.compressed);
+        mkSubElement("hasPalette", nf.hasPalette);
+        mkSubElement("gparam4", nf.gParam4);
+        mkSubElement("gparam5", nf.gParam5);
+        mkSubElement("gparam6", nf.gParam6);
+        mkSubElement("gparam7", nf.gParam7);
+        mkSubElement("numBMP", nf.numBMP);
+        mkSubElement("gsize", nf.gsize);
+    }
+
+    private void setPaletteVars() throws XMLStreamException {
+        mkSubElement("psig", nf.psig);
+        mkSubElement("palver", nf.palVer);
+        mkSubElement("pparam1", nf.pParam1);
+        mkSubElement("pparam2", nf.pParam2);
+        mkSubElement("pparam3", nf.pParam3);
+        mkSubElement("pparam4", nf.pParam4);
+        mkSubElement("divided", nf.divided);
+        mkSubElement("psize", nf.psize);
+        empty("RGB24DATA");
+        if (nf.psize == 808) {
+            mkSubElement("mainS", nf.mainS);
+            mkSubElement("mainE", nf.mainE);
         }
     }
 
-    private static void setBmpSpecs(Document cfg, Element e, int i) {
-        mkSubElement(cfg, e, "dcount", NORI.bmpSpecs[i][0]);
-        mkSubElement(cfg, e, "dlen", NORI.bmpSpecs[i][1]);
-        mkSubElement(cfg, e, "w", NORI.bmpSpecs[i][2]);
-        mkSubElement(cfg, e, "h", NORI.bmpSpecs[i][3]);
-        mkSubElement(cfg, e, "bparam4", NORI.bmpSpecs[i][4]);
-        mkSubElement(cfg, e, "pos_x", NORI.bmpSpecs[i][5]);
-        mkSubElement(cfg, e, "pos_y", NORI.bmpSpecs[i][6]);
+    private void setBmpSpecs(int i) throws XMLStreamException {
+        mkSubElement("dcount", nf.bmpSpecs[i][0]);
+        mkSubElement("dlen", nf.bmpSpecs[i][1]);
+        mkSubElement("w", nf.bmpSpecs[i][2]);
+        mkSubElement("h", nf.bmpSpecs[i][3]);
+        mkSubElement("bparam4", nf.bmpSpecs[i][4]);
+        mkSubElement("pos_x", nf.bmpSpecs[i][5]);
+        mkSubElement("pos_y", nf.bmpSpecs[i][6]);
     }
 
-    private static void setFrameOffsets(Document cfg, Element e, int a) {
+    private void setFrameOffsets(int a) throws XMLStreamException {
         // Frame Offset Elements
-        for (int i = 0; i < NORI.frames[a]; i++) {
-            Element frameOff = cfg.createElement("frameOffset");
-            frameOff.setAttribute("id",""+i);
-            frameOff.appendChild(cfg.createTextNode(""+ NORI.frameOffsets[a][i]));
-            e.appendChild(frameOff);
+        for (int i = 0; i < nf.frames[a]; i++) {
+            mkSubElement("frameOffset", i, nf.frameOffsets[nf.frame(a,i)]);
         }
     }
 
-    private static void setFrames(Document cfg, Element e, int a) {
+    private void setFrames(int a) throws XMLStreamException {
         // Frame Offset Elements
-        for (int i = 0; i < NORI.frames[a]; i++) {
-            Element frame = cfg.createElement("frame");
-            frame.setAttribute("id","" + i);
-            frame.setAttribute("offset","" + NORI.frameOffsets[a][i]);
-            e.appendChild(frame);
-            mkSubElement(cfg,frame,"delay", NORI.frameData[a][i][0]);
-            mkSubElement(cfg,frame,"planes", NORI.frameData[a][i][1]);
-            setPlanes(cfg, frame, a, i);
-            mkSubElement(cfg, frame,"xfb", NORI.xtraFrameBytes);
+        for (int i = 0; i < nf.frames[a]; i++) {
+            int g = nf.frame(a,i);
+            start("frame");
+            xw.writeAttribute("id","" + i);
+            xw.writeAttribute("offset","" + nf.frameOffsets[g]);
+            mkSubElement("delay", nf.frameData[g*2]);
+            mkSubElement("planes", nf.frameData[g*2+1]);
+            setPlanes(a, i);
+            mkSubElement("xfb", nf.xtraFrameBytes);
+            end();
         }
     }
 
-    private static void setPlanes(Document cfg, Element e, int a, int f) {
-        for (int i = 0; i < NORI.frameData[a][f][1]; i++) {
-            Element plane = cfg.createElement("plane");
-            plane.setAttribute("id",""+i);
-            e.appendChild(plane);
-            mkSubElement(cfg,plane,"bmp_id", NORI.planeData[a][f][i][0]);
-            mkSubElement(cfg,plane,"point_x", NORI.planeData[a][f][i][1]);
-            mkSubElement(cfg,plane,"point_y", NORI.planeData[a][f][i][2]);
-            mkSubElement(cfg,plane,"opacity", NORI.planeData[a][f][i][3]);
-            mkSubElement(cfg,plane,"flip_axis", NORI.planeData[a][f][i][4]);
-            mkSubElement(cfg,plane,"blend_mode", NORI.planeData[a][f][i][5]);
-            mkSubElement(cfg,plane,"flag_param", NORI.planeData[a][f][i][6]);
+    private void setPlanes(int a, int f) throws XMLStreamException {
+        for (int i = 0; i < nf.frameData[nf.frame(a,f)*2+1]; i++) {
+            int p = nf.plane(a,f,i);
+            start("plane");
+            xw.writeAttribute("id",""+i);
+            mkSubElement("bmp_id", nf.planeData[p]);
+            mkSubElement("point_x", nf.planeData[p+1]);
+            mkSubElement("point_y", nf.planeData[p+2]);
+            mkSubElement("opacity", nf.planeData[p+3]);
+            mkSubElement("flip_axis", nf.planeData[p+4]);
+            mkSubElement("blend_mode", nf.planeData[p+5]);
+            mkSubElement("flag_param", nf.planeData[p+6]);
+            end();
         }
     }
 
+    // Open an element on a new line, indented 2 spaces per level
+    private void start(String name) throws XMLStreamException {
+        indent();
+        xw.writeStartElement(name);
+        depth++;
+    }
+
+    // Close the last opened element, on its own line
+    private void end() throws XMLStreamException {
+        depth--;
+        indent();
+        xw.writeEndElement();
+    }
+
+    // An element with nothing in it (<name/>)
+    private void empty(String name) throws XMLStreamException {
+        indent();
+        xw.writeEmptyElement(name);
+    }
+
+    // New line + indent, made once for each level (the config has 5)
+    private void indent() throws XMLStreamException {
+        if (depth >= indents.length) {
+            indents = Arrays.copyOf(indents, depth + 1);
+        }
+        if (indents[depth] == null) {
+            StringBuilder sb = new StringBuilder(NL);
+            for (int i = 0; i < depth; i++) sb.append("  ");
+            indents[depth] = sb.toString();
+        }
+        xw.writeCharacters(indents[depth]);
+    }
+
     // Make Element child (Element's Element)
-    private static void mkSubElement(Document cfg, Element e, String name, int val) {
-        Element subE = cfg.createElement(name);
-        subE.appendChild(cfg.createTextNode(""+val));
-        e.appendChild(subE);
+    private void mkSubElement(String name, String val) throws XMLStreamException {
+        if (val.isEmpty()) {
+            empty(name);
+            return;
+        }
+        indent();
+        xw.writeStartElement(name);
+        xw.writeCharacters(val);
+        xw.writeEndElement();
+    }
+
+    private void mkSubElement(String name, int val) throws XMLStreamException {
+        mkSubElement(name, ""+val);
+    }
+
+    // Same, with an id attribute (<name id="id">val</name>)
+    private void mkSubElement(String name, int id, int val) throws XMLStreamException {
+        indent();
+        xw.writeStartElement(name);
+        xw.writeAttribute("id",""+id);
+        xw.writeCharacters(""+val);
+        xw.writeEndElement();
     }
 }
@@ -14,6 +14,7 @@ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
 GNU General Public License for more details.
 */
 import java.nio.*;
+import java.util.*;
 import static java.lang.System.out;
 /**
 Class Description:
@@ -29,22 +30,32 @@ Development Priority: HIGH
 */
 public class Analyzer {
     // class variables
-    public static int pos=0,rem=0,bpos=0,apos=0,fpos=0,bmpNxt=0,animNxt=0;
+    public int pos=0,rem=0,bpos=0,apos=0,fpos=0,bmpNxt=0,animNxt=0;
     // special GAWI variables
-    public static int gStart=0,gEnd=0;
-    public static boolean compressed=false, hasPalette=false;
+    public int gStart=0,gEnd=0;
+    public boolean compressed=false, hasPalette=false;
     // special BMP data variables
-    public static int[] bmpOffsets;
+    public int[] bmpOffsets;
     // special animation variables
-    public static int asize=0, numFrames=0, numPlanes=0;
-    public static int[] animOffsets;
-    public static byte[] animName = new byte[32];
-    public static int[][] frameOffsets;
+    public int asize=0, numFrames=0, numPlanes=0, totFrames=0, totPlanes=0;
+    public int[] animOffsets;
+    public byte[] animName = new byte[32];
+    public int[] frameOffsets;
+    // the NORI file being analyzed
+    private NORI nf;
 
     // constructor for Analyzer class
-    public Analyzer(ByteBuffer bb) {
+    public Analyzer(ByteBuffer bb, NORI nori) {
+        this(bb, nori, false);
+    }
+
+    // With headersOnly, it stops after the bmpSpecs (the animations are left
+    // alone) and prints a summary of the bitmaps instead. Made for going over
+    // lots of files quickly, since only the headers are ever looked at.
+    public Analyzer(ByteBuffer bb, NORI nori, boolean headersOnly) {
+        nf = nori;
         out.println("========================================================");
-        out.println("Filename: " + NORI.name);
+        out.println("Filename: " + nf.name);
         try {
             // Read and Assign info about the noriFile
             setNoriHeader(bb);
@@ -52,104 +63,109 @@ public class Analyzer {
             if (hasPalette) setPaletteData(bb);
             setBmpOffsets(bb);
             dryExtract(bb);// Skip through bmpData, assign bmpSpecs data
-            if (NORI.gsize == 0) gawiSizeFixes();
+            if (nf.gsize == 0) gawiSizeFixes();
+            if (headersOnly) {
+                bmpSummary();
+                bb.position(bpos);
+                return;
+            }
             prepAnimVars();
             setAnimOffsets(bb);
             setAnimInfo(bb);
             offsetCheck();
+            nf.analyzed = true;
             //bbStatus(bb);// rem!=0 if noriVer is wrong (ex: Mini_mapd01a.nri)
             // Reset bytebuffer for extraction
             bb.position(bpos);
+        } catch(IllegalStateException ex) {
+            // Failed checks mean the file is unusable, let the caller know
+            throw ex;
         } catch(Exception ex) {
             out.println("Error in (AM):\n"+ex);
+            // A truncated or corrupt file is just as unusable
+            throw new IllegalStateException(nf.name, ex);
         }
     }
 
-    private static void setNoriHeader(ByteBuffer bb) {
-        NORI.fsig = bb.getInt();
-        noriCheck(NORI.fsig);
-        NORI.noriVer = bb.getInt();
+    private void setNoriHeader(ByteBuffer bb) {
+        nf.fsig = bb.getInt();
+        noriCheck(nf.fsig);
+        nf.noriVer = bb.getInt();
         noriVerCheck();
-        NORI.nParam1 = bb.getInt();
-        NORI.nParam2 = bb.getInt();
-        NORI.nParam3 = bb.getInt();
-        NORI.nParam4 = bb.getInt();
-        NORI.nParam5 = bb.getInt();
-        NORI.anims = bb.getInt();
-        out.println("# of animations: " + NORI.anims);
-        NORI.woGawi = bb.getInt();
-        out.println("fsize w/o GAWI: " + NORI.woGawi);
-        NORI.fsize = bb.getInt();
-        out.println("fsize: " + NORI.fsize);
-        if (NORI.fsize == 0) NORI.fsize = bb.capacity();// Fix Ntree*'s mistake
+        nf.nParam1 = bb.getInt();
+        nf.nParam2 = bb.getInt();
+        nf.nParam3 = bb.getInt();
+        nf.nParam4 = bb.getInt();
+        nf.nParam5 = bb.getInt();
+        nf.anims = bb.getInt();
+        out.println("# of animations: " + nf.anims);
+        nf.woGawi = bb.getInt();
+        out.println("fsize w/o GAWI: " + nf.woGawi);
+        nf.fsize = bb.getInt();
+        out.println("fsize: " + nf.fsize);
+        if (nf.fsize == 0) nf.fsize = bb.capacity();// Fix Ntree*'s mistake
         out.println();
     }
 
-    private static void setGawiHeader(ByteBuffer bb) {
+    private void setGawiHeader(ByteBuffer bb) {
         gStart = bb.position();
-        NORI.gsig = bb.getInt();
-        gawiCheck(NORI.gsig);
-        NORI.gawiVer = bb.getInt();
-        gawiVerCheck(NORI.gawiVer);
-        NORI.bpp = bb.getInt();
-        out.println("BitsPerPixel: "+ NORI.bpp);
-        NORI.compressed = bb.getInt();
-        compressed = (NORI.compressed ==1);
+        nf.gsig = bb.getInt();
+        gawiCheck(nf.gsig);
+        nf.gawiVer = bb.getInt();
+        gawiVerCheck(nf.gawiVer);
+        nf.bpp = bb.getInt();
+        out.println("BitsPerPixel: "+ nf.bpp);
+        nf.compressed = bb.getInt();
+        compressed = (nf.compressed ==1);
         out.println("Compressed: "+compressed);
-        NORI.hasPalette = bb.getInt();
-        hasPalette = (NORI.hasPalette ==1);
+        nf.hasPalette = bb.getInt();
+        hasPalette = (nf.hasPalette ==1);
         out.println("hasPalette: "+hasPalette);
-        NORI.gParam4 = bb.getInt();
-        NORI.gParam5 = bb.getInt();
-        NORI.gParam6 = bb.getInt();
-        NORI.gParam7 = bb.getInt();
-        NORI.numBMP = bb.getInt();
-        out.println("# of images: "+ NORI.numBMP);
-        NORI.gsize = bb.getInt();
-        out.println("gsize: "+ NORI.gsize);
+        nf.gParam4 = bb.getInt();
+        nf.gParam5 = bb.getInt();
+        nf.gParam6 = bb.getInt();
+        nf.gParam7 = bb.getInt();
+        nf.numBMP = bb.getInt();
+        out.println("# of images: "+ nf.numBMP);
+        nf.gsize = bb.getInt();
+        out.println("gsize: "+ nf.gsize);
         out.println();
     }
 
-    private static void setPaletteData(ByteBuffer bb) {
-        NORI.psig = bb.getInt();
-        palCheck(NORI.psig);
-        NORI.palVer = bb.getInt();
-        palVerCheck(NORI.palVer);
-        NORI.pParam1 = bb.getInt();
-        NORI.pParam2 = bb.getInt();
-        NORI.pParam3 = bb.getInt();
-        NORI.pParam4 = bb.getInt();
-        NORI.divided = bb.getInt();
-        NORI.psize = bb.getInt();
-        out.println("psize: "+ NORI.psize);
-        NORI.palette = setPalette(bb);
-        if (NORI.psize == 808) {
-            NORI.mainS = bb.getInt();
-            NORI.mainE = bb.getInt();
+    private void setPaletteData(ByteBuffer bb) {
+        nf.psig = bb.getInt();
+        palCheck(nf.psig);
+        nf.palVer = bb.getInt();
+        palVerCheck(nf.palVer);
+        nf.pParam1 = bb.getInt();
+        nf.pParam2 = bb.getInt();
+        nf.pParam3 = bb.getInt();
+        nf.pParam4 = bb.getInt();
+        nf.divided = bb.getInt();
+        nf.psize = bb.getInt();
+        out.println("psize: "+ nf.psize);
+        nf.palette = setPalette(bb);
+        nf.pal24 = JBL.packPalette(nf.palette);
+        if (nf.psize == 808) {
+            nf.mainS = bb.getInt();
+            nf.mainE = bb.getInt();
         }
         out.println();
     }
 
     // Make BMP color palette from raw palette data. Okay, one of the harder to
     // follow parts here. Colors are stored in BGR order. Take it in stride.
-    private static byte[][] setPalette(ByteBuffer bb) {
-        NORI.pb = new byte[768];
+    private byte[][] setPalette(ByteBuffer bb) {
+        nf.pb = new byte[768];
         byte[] newBG = {(byte)255,(byte)0,(byte)255};
         byte[][] colors = new byte[256][3];
         try {
             // gets/puts the palette bytes into the pb array
-            bb.get(NORI.pb,0,768);
-            ByteBuffer pbb = mkLEBB(NORI.pb);
+            bb.get(nf.pb,0,768);
+            ByteBuffer pbb = mkLEBB(nf.pb);
             // standardize the bg to neon pink
             pbb.put(newBG,0,3);
-            // Place the bytes in the dual array 'colors' that groups the rgb
-            // bytes according to the color/palette index they represent
-            for(int i = 0; i < 256; i++) {
-                int x = i*3, b=x+0, g=x+1, r=x+2;
-                colors[i][0] = NORI.pb[r];
-                colors[i][1] = NORI.pb[g];
-                colors[i][2] = NORI.pb[b];
-            }
+            colors = toColors(nf.pb);
         }
         catch(Exception ex) {
             out.println("Error in (setPal):\n"+ex);
@@ -157,42 +173,54 @@ public class Analyzer {
         return colors;
     }
 
+    // Place the bytes in the dual array 'colors' that groups the rgb
+    // bytes according to the color/palette index they represent
+    public static byte[][] toColors(byte[] pb) {
+        byte[][] colors = new byte[256][3];
+        for(int i = 0; i < 256; i++) {
+            int x = i*3, b=x+0, g=x+1, r=x+2;
+            colors[i][0] = pb[r];
+            colors[i][1] = pb[g];
+            colors[i][2] = pb[b];
+        }
+        return colors;
+    }
+
     // Load bmp offsets into the bmpOffsets array for global use
-    private static void setBmpOffsets(ByteBuffer bb)
+    private void setBmpOffsets(ByteBuffer bb)
     {
-        bmpOffsets = new int[NORI.numBMP +1];
-        NORI.bmpOffsets = new int[NORI.numBMP +1];
-        for(int i = 0; i < NORI.numBMP; i++)
+        bmpOffsets = new int[nf.numBMP +1];
+        nf.bmpOffsets = new int[nf.numBMP +1];
+        for(int i = 0; i < nf.numBMP; i++)
         {
-            NORI.bmpOffsets[i] = bb.getInt();
-            if(compressed) NORI.bmpOffsets[i] += i*28;
+            nf.bmpOffsets[i] = bb.getInt();
+            if(compressed) nf.bmpOffsets[i] += i*28;
         }
         // get buffer position at end of offsets
         bpos = bb.position();
-        NORI.bpos = bpos;
+        nf.bpos = bpos;
     }
 
     // Load the bmpSpecs array and simulate extraction for the bytebuffer
-    private static void dryExtract(ByteBuffer bb) {
-        NORI.bmpSpecs = new int[NORI.numBMP][7];
-        int offsetDiff = NORI.bmpOffsets[NORI.numBMP -1]- NORI.bmpOffsets[0];
+    private void dryExtract(ByteBuffer bb) {
+        nf.bmpSpecs = new int[nf.numBMP][7];
+        int offsetDiff = nf.bmpOffsets[nf.numBMP -1]- nf.bmpOffsets[0];
         boolean offDiff = (offsetDiff > 0);
-        for(int i = 0; i < NORI.numBMP; i++)
+        for(int i = 0; i < nf.numBMP; i++)
         {
             bmpOffsets[i] = bb.position() - bpos;// Set offsetCheck() value
-            if(NORI.bmpOffsets[i+1]!=0)
-                bmpNxt= NORI.bmpOffsets[i+1] + bpos;
+            if(nf.bmpOffsets[i+1]!=0)
+                bmpNxt= nf.bmpOffsets[i+1] + bpos;
             else
-                bmpNxt= NORI.bmpOffsets[i+1];
-            NORI.bmpSpecs[i][0] = bb.getInt();
-            NORI.bmpSpecs[i][1] = bb.getInt();
-            NORI.bmpSpecs[i][2] = bb.getInt();
-            NORI.bmpSpecs[i][3] = bb.getInt();
-            NORI.bmpSpecs[i][4] = bb.getInt();
-            NORI.bmpSpecs[i][5] = bb.getInt();
-            NORI.bmpSpecs[i][6] = bb.getInt();
-            JBL.setBmpVars(NORI.bmpSpecs[i][2], NORI.bmpSpecs[i][3], NORI.bpp);
-            byte[] rawBytes = JBL.getImgBytes(bb, NORI.bmpSpecs[i][1]);
+                bmpNxt= nf.bmpOffsets[i+1];
+            nf.bmpSpecs[i][0] = bb.getInt();
+            nf.bmpSpecs[i][1] = bb.getInt();
+            nf.bmpSpecs[i][2] = bb.getInt();
+            nf.bmpSpecs[i][3] = bb.getInt();
+            nf.bmpSpecs[i][4] = bb.getInt();
+            nf.bmpSpecs[i][5] = bb.getInt();
+            nf.bmpSpecs[i][6] = bb.getInt();
+            skipImgBytes(bb, nf.bmpSpecs[i]);
             // Ensure the buffer is in the right position for the next bmp
             if(offDiff && bpos!=bmpNxt && bmpNxt!=0) bb.position(bmpNxt);
         }
@@ -200,53 +228,92 @@ public class Analyzer {
         asize = bb.remaining();
     }
 
+    // Move past the bitmap data, the same amount JBL.getImgBytes() would read
+    private void skipImgBytes(ByteBuffer bb, int[] specs) {
+        int dataSize = specs[1];
+        if (dataSize == 0) dataSize = specs[2] * specs[3] * (nf.bpp / 8);
+        if (dataSize < 0 || dataSize > bb.remaining())
+            throw new BufferUnderflowException();
+        bb.position(bb.position() + dataSize);
+    }
+
+    // Sums up the bmpSpecs for header-only analysis
+    private void bmpSummary() {
+        long data = 0, px = 0, bigPx = -1;
+        int subsets = 0, big = 0;
+        for (int i = 0; i < nf.numBMP; i++) {
+            int[] specs = nf.bmpSpecs[i];
+            if (specs[0] > 1) subsets++;
+            data += specs[1];
+            // long, so big or corrupt sizes can't overflow
+            long size = (long)specs[2] * specs[3];
+            px += size;
+            if (size > bigPx) {
+                bigPx = size;
+                big = i;
+            }
+        }
+        out.println("Images w/ subsets: " + subsets);
+        out.println("Image data: " + data + " bytes");
+        out.println("Pixels: " + px);
+        if (nf.numBMP > 0) {
+            out.println("Largest image: #" + (big + 1) + ", "
+                + nf.bmpSpecs[big][2] + "x" + nf.bmpSpecs[big][3]);
+        }
+        out.println();
+    }
+
     // One of many data fixes I've implemented to prevent Ntree* mistakes from
     // being carried over to the config files. This fixes woGawi and gsize.
-    private static void gawiSizeFixes() {
-        NORI.gsize = gEnd - gStart;
-        if (NORI.woGawi == 0) NORI.woGawi = 40 + asize;
+    private void gawiSizeFixes() {
+        nf.gsize = gEnd - gStart;
+        if (nf.woGawi == 0) nf.woGawi = 40 + asize;
     }
 
-    // Prepare the animation-related arrays
-    private static void prepAnimVars() {
-        // large array sizes needed for dealing with unknown input
-        animOffsets = new int[NORI.anims +1];
-        NORI.animOffsets = new int[NORI.anims +1];
-        NORI.animName = new String[NORI.anims];
-        NORI.frames = new int[NORI.anims];
-        frameOffsets = new int[NORI.anims][200];
-        NORI.frameOffsets = new int[NORI.anims][200];
-        NORI.frameData = new int[NORI.anims][200][2];
-        NORI.planeData = new int[NORI.anims][200][100][7];
-        NORI.xfb = new byte[NORI.xtraFrameBytes];
+    // Prepare the animation-related arrays. The frame & plane tables grow as
+    // the animations are read, then get cut down to size in setAnimInfo().
+    private void prepAnimVars() {
+        animOffsets = new int[nf.anims +1];
+        nf.animOffsets = new int[nf.anims +1];
+        nf.animName = new String[nf.anims];
+        nf.frames = new int[nf.anims];
+        nf.animFrame = new int[nf.anims +1];
+        frameOffsets = new int[16];
+        nf.frameOffsets = new int[16];
+        nf.frameData = new int[16 * 2];
+        nf.framePlane = new int[16 +1];
+        nf.planeData = new int[16 * 7];
+        nf.xfb = new byte[nf.xtraFrameBytes];
     }
 
-    private static void setAnimOffsets(ByteBuffer bb) {
-        for (int i = 0; i < NORI.anims; i++) {
-            NORI.animOffsets[i] = bb.getInt();
+    private void setAnimOffsets(ByteBuffer bb) {
+        for (int i = 0; i < nf.anims; i++) {
+            nf.animOffsets[i] = bb.getInt();
         }
         apos = bb.position();
-        NORI.apos = apos;
+        nf.apos = apos;
     }
 
     // Set the info for all the animations
-    private static void setAnimInfo(ByteBuffer bb) {
+    private void setAnimInfo(ByteBuffer bb) {
         try {
-            int offsetDiff = NORI.animOffsets[NORI.anims -1] - NORI.animOffsets[0];
+            int offsetDiff = nf.animOffsets[nf.anims -1] - nf.animOffsets[0];
             boolean offDiff = (offsetDiff > 0);
-            for (int i = 0; i < NORI.anims; i++) {
+            for (int i = 0; i < nf.anims; i++) {
+                nf.animFrame[i] = totFrames;
                 animOffsets[i] = bb.position() - apos;// Set offsetCheck() value
-                if (NORI.animOffsets[i+1]!=0) {
-                    animNxt = NORI.animOffsets[i+1] + apos;
+                if (nf.animOffsets[i+1]!=0) {
+                    animNxt = nf.animOffsets[i+1] + apos;
                 } else {
-                    animNxt = NORI.animOffsets[i+1];
+                    animNxt = nf.animOffsets[i+1];
                 }
                 bb.get(animName,0,32);
-                NORI.animName[i] = (new String(animName,"EUC-KR")).trim();
-                NORI.frames[i] = bb.getInt();
-                numFrames = NORI.frames[i];
-                setFrameOffsets(bb,i);
-                setFrameData(bb,i);
+                nf.animName[i] = (new String(animName,"EUC-KR")).trim();
+                nf.frames[i] = bb.getInt();
+                numFrames = nf.frames[i];
+                addFrames(bb);
+                setFrameOffsets(bb);
+                setFrameData(bb);
                 pos = bb.position();
                 if (offDiff && pos!=animNxt && animNxt!=0) bb.position(animNxt);
             }
@@ -254,115 +321,154 @@ public class Analyzer {
         catch(Exception ex) {
             out.println("Error in (setAnimInfo):\n"+ex);
         }
+        finally {
+            fitAnimTables();
+        }
     }
 
-    private static void setFrameOffsets(ByteBuffer bb, int a) {
-        for (int i=0; i < numFrames; i++) {
-            NORI.frameOffsets[a][i] = bb.getInt();
+    // Cuts the frame & plane tables down to exactly what was read. If a bad
+    // count stopped the reading, it is cut down to what is there too.
+    private void fitAnimTables() {
+        for (int i = 0; i < nf.anims; i++) {
+            nf.frames[i] = Math.min(nf.frames[i], totFrames - nf.animFrame[i]);
         }
-        fpos = bb.position();
+        for (int g = 0; g < totFrames; g++) {
+            int planes = nf.frameData[g * 2 + 1];
+            nf.frameData[g * 2 + 1] = Math.min(planes, totPlanes - nf.framePlane[g]);
+        }
+        nf.animFrame[nf.anims] = totFrames;
+        nf.framePlane[totFrames] = totPlanes;
+        frameOffsets = Arrays.copyOf(frameOffsets, totFrames);
+        nf.frameOffsets = Arrays.copyOf(nf.frameOffsets, totFrames);
+        nf.frameData = Arrays.copyOf(nf.frameData, totFrames * 2);
+        nf.framePlane = Arrays.copyOf(nf.framePlane, totFrames + 1);
+        nf.planeData = Arrays.copyOf(nf.planeData, totPlanes * 7);
     }
 
-    // Set actual data for frames (and planes)
-    private static void setFrameData(ByteBuffer bb, int a) {
-        for (int i=0; i < numFrames; i++) {
-            frameOffsets[a][i] = bb.position() - fpos;// Set offsetCheck() value
-            NORI.frameData[a][i][0] = bb.getInt();
-            NORI.frameData[a][i][1] = bb.getInt();
-            numPlanes = NORI.frameData[a][i][1];
-            setPlaneData(bb,a,i);
+    // Makes room for the next animation's frames in the frame tables
+    private void addFrames(ByteBuffer bb) {
+        // every frame has a 4 byte offset, so a bigger count can't be right
+        if (numFrames < 0 || numFrames > bb.remaining() / 4)
+            throw new BufferUnderflowException();
+        int need = totFrames + numFrames;
+        if (need > frameOffsets.length) {
+            int size = Math.max(need, frameOffsets.length * 2);
+            frameOffsets = Arrays.copyOf(frameOffsets, size);
+            nf.frameOffsets = Arrays.copyOf(nf.frameOffsets, size);
+            nf.frameData = Arrays.copyOf(nf.frameData, size * 2);
+            nf.framePlane = Arrays.copyOf(nf.framePlane, size + 1);
         }
+        totFrames = need;
     }
 
-    private static void setPlaneData(ByteBuffer bb, int a, int f) {
-        for (int i=0; i < numPlanes; i++) {
-            NORI.planeData[a][f][i][0] = bb.getInt();
-            NORI.planeData[a][f][i][1] = bb.getInt();
-            NORI.planeData[a][f][i][2] = bb.getInt();
-            NORI.planeData[a][f][i][3] = bb.getInt();
-            NORI.planeData[a][f][i][4] = bb.getInt();
-            NORI.planeData[a][f][i][5] = bb.getInt();
-            NORI.planeData[a][f][i][6] = bb.getInt();
+    private void setFrameOffsets(ByteBuffer bb) {
+        int g = totFrames - numFrames;
+        bb.asIntBuffer().get(nf.frameOffsets, g, numFrames);
+        bb.position(bb.position() + numFrames * 4);
+        fpos = bb.position();
+    }
+
+    // Set actual data for frames (and planes)
+    private void setFrameData(ByteBuffer bb) {
+        for (int g = totFrames - numFrames; g < totFrames; g++) {
+            frameOffsets[g] = bb.position() - fpos;// Set offsetCheck() value
+            nf.frameData[g * 2] = bb.getInt();
+            nf.frameData[g * 2 + 1] = bb.getInt();
+            numPlanes = nf.frameData[g * 2 + 1];
+            nf.framePlane[g] = totPlanes;
+            setPlaneData(bb);
         }
+    }
 
-        bb.get(NORI.xfb,0, NORI.xtraFrameBytes);
+    private void setPlaneData(ByteBuffer bb) {
+        // 28 bytes a plane, so a bigger count can't be right either
+        if (numPlanes < 0 || numPlanes > bb.remaining() / 28)
+            throw new BufferUnderflowException();
+        int need = (totPlanes + numPlanes) * 7;
+        if (need > nf.planeData.length)
+            nf.planeData = Arrays.copyOf(nf.planeData, Math.max(need, nf.planeData.length * 2));
+        int p = totPlanes;
+        totPlanes += numPlanes;
+        bb.asIntBuffer().get(nf.planeData, p * 7, numPlanes * 7);
+        bb.position(bb.position() + numPlanes * 28);
+
+        bb.get(nf.xfb,0, nf.xtraFrameBytes);
     }
 
     // Check if nf offset arrays = local arrays, fix nf arrays if not equal
-    private static void offsetCheck() {
-        if (NORI.bmpOffsets != bmpOffsets)
-            NORI.bmpOffsets = bmpOffsets;
+    private void offsetCheck() {
+        if (nf.bmpOffsets != bmpOffsets)
+            nf.bmpOffsets = bmpOffsets;
 
-        if (NORI.animOffsets != animOffsets)
-            NORI.animOffsets = animOffsets;
+        if (nf.animOffsets != animOffsets)
+            nf.animOffsets = animOffsets;
 
-        if (NORI.frameOffsets != frameOffsets)
-            NORI.frameOffsets = frameOffsets;
+        if (nf.frameOffsets != frameOffsets)
+            nf.frameOffsets = frameOffsets;
     }
 
-    private static void noriCheck(int signature) {
+    private void noriCheck(int signature) {
         out.print("NORI Signature Check: ");
         intCheck(1230131022, signature);
     }
 
     // Checks NORI version and sets the appropriate # of extra bytes
-    private static void noriVerCheck() {
+    private void noriVerCheck() {
         out.print("NORI Version: ");
 
-        switch(NORI.noriVer) {
+        switch(nf.noriVer) {
             case 300:
-                NORI.xtraFrameBytes = 224;
+                nf.xtraFrameBytes = 224;
                 break;
             case 301:
-                NORI.xtraFrameBytes = 228;
+                nf.xtraFrameBytes = 228;
                 break;
             case 302:
-                NORI.xtraFrameBytes = 348;
+                nf.xtraFrameBytes = 348;
                 break;
             case 303:
-                NORI.xtraFrameBytes = 352;
+                nf.xtraFrameBytes = 352;
                 break;
             default:
                 out.println("Unknown type! File a bug report.");
-                System.exit(1);
-                break;
+                throw new IllegalStateException("Unknown NORI version: "+nf.noriVer);
         }
 
-        out.println(NORI.noriVer);
+        out.println(nf.noriVer);
     }
 
-    private static void gawiCheck(int signature) {
+    private void gawiCheck(int signature) {
         out.print("GAWI Signature Check: ");
         intCheck(1230455111, signature);
     }
 
-    private static void gawiVerCheck(int verNum) {
+    private void gawiVerCheck(int verNum) {
         out.print("GAWI Version: ");
         intCheck(300,verNum);
     }
 
-    private static void palCheck(int signature) {
+    private void palCheck(int signature) {
         out.print("PAL_ Signature Check: ");
         intCheck(1598832976, signature);
     }
 
-    private static void palVerCheck(int verNum) {
+    private void palVerCheck(int verNum) {
         out.print("PAL_ Version: ");
         intCheck(100,verNum);
     }
 
     // Reusable int check, b/c we do this often
-    private static void intCheck(int ref, int input) {
+    private void intCheck(int ref, int input) {
         if (input == ref) {
             out.println("Passed.");
         } else {
             out.println("Failed!");
-            System.exit(1);
+            throw new IllegalStateException("Expected "+ref+", found "+input);
         }
     }
 
     // (Dbg) Prints the buffer's current status info
-    private static void bbStatus(ByteBuffer bb) {
+    private void bbStatus(ByteBuffer bb) {
         rem = bb.remaining();
         pos = bb.position();
         out.println("\nRemaining bytes: "+rem);
@@ -0,0 +1,154 @@
+package com.github.tricksteronline;/*
+Batch.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import static java.lang.System.out;
+/**
+Class Description:
+The Batch class runs the selected mode on many NORI files at the same time,
+using a work-stealing pool of worker threads.
+
+Dev Notes:
+Each file is handed to Main.runFile(), which gives it its own NORI, Analyzer,
+Extract and JBL objects, so the workers never share any state. The output a
+worker produces for a file is held back until that file is done, then printed
+in one piece, otherwise the file reports would be shuffled together. A file
+that fails is counted and named in the summary, the rest of the batch goes on.
+The biggest files are started first, so one huge file isn't left running on
+its own at the end while the other workers sit idle. Each file's report ends
+with its size & MB/s, and the summary has the MB/s of the whole batch.
+
+Development Priority: MEDIUM
+*/
+public class Batch {
+    // class variables
+    public int done=0, failed=0;
+    public long bytes=0;
+    public List<String> failures = new ArrayList<>();
+
+    // constructor for Batch class
+    public Batch(List<File> fileList, int threads) {
+        // Biggest first, an idle worker takes the next one from the others
+        List<File> files = new ArrayList<>(fileList);
+        files.sort((a, b) -> Long.compare(b.length(), a.length()));
+        PrintStream stdout = System.out;
+        FileOutput fo = new FileOutput(stdout);
+        System.setOut(new PrintStream(fo, true));
+        ExecutorService pool = Executors.newWorkStealingPool(threads);
+        long start = System.nanoTime();
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (File f : files) {
+                results.add(pool.submit(() -> runFile(fo, f)));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                boolean ok;
+                try {
+                    ok = results.get(i).get();
+                } catch(ExecutionException ex) {
+                    ok = false;
+                }
+                done++;
+                bytes += files.get(i).length();
+                if (!ok) {
+                    failed++;
+                    failures.add(files.get(i).getPath());
+                }
+            }
+        } catch(Exception ex) {
+            out.println("Error in (Batch):\n"+ex);
+        } finally {
+            pool.shutdownNow();
+            System.setOut(stdout);
+        }
+        summary(System.nanoTime() - start, threads);
+    }
+
+    // Runs one file with its output captured, then prints it all at once
+    private static boolean runFile(FileOutput fo, File f) {
+        fo.begin();
+        long start = System.nanoTime();
+        try {
+            return Main.runFile(f);
+        } finally {
+            double secs = (System.nanoTime() - start) / 1e9;
+            out.printf("File Done: %s, %d bytes, %.3fs, %.1f MB/s%n",
+                f.getPath(), f.length(), secs, mbps(f.length(), secs));
+            fo.end();
+        }
+    }
+
+    private static double mbps(long size, double secs) {
+        return size / 1e6 / Math.max(secs, 1e-9);
+    }
+
+    // Prints the final tally of the batch
+    private void summary(long nanos, int threads) {
+        out.println("========================================================");
+        out.printf("Batch Complete: %d files, %d failed, %d threads, %.2fs%n",
+            done, failed, threads, nanos / 1e9);
+        out.printf("Throughput: %d bytes, %.1f MB/s%n", bytes, mbps(bytes, nanos / 1e9));
+        for (String f : failures) {
+            out.println("Failed: " + f);
+        }
+    }
+
+    // Output stream that keeps each worker thread's output separate until the
+    // worker says it's done with the file. Threads that never called begin()
+    // just write straight through.
+    private static class FileOutput extends OutputStream {
+        private final PrintStream real;
+        private final ThreadLocal<ByteArrayOutputStream> buf = new ThreadLocal<>();
+
+        FileOutput(PrintStream stdout) {
+            real = stdout;
+        }
+
+        void begin() {
+            buf.set(new ByteArrayOutputStream());
+        }
+
+        void end() {
+            ByteArrayOutputStream b = buf.get();
+            buf.remove();
+            if (b == null) return;
+            synchronized (real) {
+                real.write(b.toByteArray(), 0, b.size());
+                real.flush();
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            ByteArrayOutputStream bo = buf.get();
+            if (bo != null) bo.write(b);
+            else real.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ByteArrayOutputStream bo = buf.get();
+            if (bo != null) bo.write(b, off, len);
+            else real.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            if (buf.get() == null) real.flush();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.github.tricksteronline;/*
+BinCfg.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import static java.lang.System.out;
+/**
+Class Description:
+A binary version of the NORI config file (.ncb), for when the config is only
+going from Analyze to Create and nobody needs to read it. It holds everything
+the xml config does, plus the xfb & palette bytes that otherwise go in their
+own .bin files, so a single file is all Create needs (besides the BMP).
+
+Dev Notes:
+All little-endian ints, in the order below. Strings are an int byte count and
+then UTF-8 bytes. The tables are the same flat ones NORI uses, so loading is a
+few bulk reads off a memory-mapped file. Change VERSION if the layout changes.
+  magic "TNTC", version, name (unused when read, comes from the file name)
+  NORI header (10 ints), GAWI header (11 ints)
+  if hasPalette: PAL header (8 ints), mainS, mainE, palette byte count & bytes
+  bpos, apos, xtraFrameBytes, xfb byte count & bytes
+  bmpOffsets (numBMP ints), bmpSpecs (numBMP * 7 ints)
+  animOffsets (anims ints), anim names (anims strings), frames (anims ints)
+  # of frames, frameOffsets, frameData (2 per frame)
+  # of planes, planeData (7 per plane)
+
+Development Priority: LOW
+*/
+public class BinCfg {
+    // class variables
+    public static final String EXT = ".ncb";
+    public static final int MAGIC = 0x43544E54, VERSION = 1;
+
+    // Checks the file name to tell a binary config from an xml one
+    public static boolean isBinCfg(File config) {
+        return config.getName().endsWith(EXT);
+    }
+
+    // Write all of the config data in nf to file
+    public static void write(NORI nf, File file) throws IOException {
+        Files.write(file.toPath(), toBytes(nf));
+    }
+
+    // All of the config data in nf, laid out as above
+    public static byte[] toBytes(NORI nf) {
+        byte[] name = utf8(nf.name);
+        byte[][] animNames = new byte[nf.anims][];
+        int strings = 4 + name.length;
+        for (int i = 0; i < nf.anims; i++) {
+            animNames[i] = utf8(nf.animName[i]);
+            strings += 4 + animNames[i].length;
+        }
+        int frames = nf.animFrame[nf.anims], planes = nf.framePlane[frames];
+        int pal = (nf.hasPalette == 1) ? 4 * 11 + nf.pb.length : 0;
+        int size = 4 * 2 + strings + 4 * 21 + pal + 4 * 4 + nf.xfb.length
+            + nf.numBMP * 4 * 8 + nf.anims * 4 * 2 + 4 + frames * 4 * 3
+            + 4 + planes * 4 * 7;
+
+        ByteBuffer bb = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        bb.putInt(MAGIC);
+        bb.putInt(VERSION);
+        putBytes(bb, name);
+        // NORI & GAWI headers
+        for (int x : new int[]{nf.fsig, nf.noriVer, nf.nParam1, nf.nParam2,
+                nf.nParam3, nf.nParam4, nf.nParam5, nf.anims, nf.woGawi,
+                nf.fsize, nf.gsig, nf.gawiVer, nf.bpp, nf.compressed,
+                nf.hasPalette, nf.gParam4, nf.gParam5, nf.gParam6, nf.gParam7,
+                nf.numBMP, nf.gsize}) {
+            bb.putInt(x);
+        }
+        // Palette section
+        if (nf.hasPalette == 1) {
+            for (int x : new int[]{nf.psig, nf.palVer, nf.pParam1, nf.pParam2,
+                    nf.pParam3, nf.pParam4, nf.divided, nf.psize, nf.mainS,
+                    nf.mainE}) {
+                bb.putInt(x);
+            }
+            putBytes(bb, nf.pb);
+        }
+        bb.putInt(nf.bpos);
+        bb.putInt(nf.apos);
+        bb.putInt(nf.xtraFrameBytes);
+        putBytes(bb, nf.xfb);
+        // BMP offsets & specs
+        putInts(bb, nf.bmpOffsets, 0, nf.numBMP);
+        for (int i = 0; i < nf.numBMP; i++) {
+            putInts(bb, nf.bmpSpecs[i], 0, 7);
+        }
+        // Animations, frames, & planes
+        putInts(bb, nf.animOffsets, 0, nf.anims);
+        for (byte[] animName : animNames) {
+            putBytes(bb, animName);
+        }
+        putInts(bb, nf.frames, 0, nf.anims);
+        bb.putInt(frames);
+        putInts(bb, nf.frameOffsets, 0, frames);
+        putInts(bb, nf.frameData, 0, frames * 2);
+        bb.putInt(planes);
+        putInts(bb, nf.planeData, 0, planes * 7);
+        return bb.array();
+    }
+
+    // Read a binary config into nf, the file is memory-mapped, not loaded
+    public static void read(File file, NORI nf) throws IOException {
+        ByteBuffer bb;
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+        fromBytes(bb, nf, file.toString());
+    }
+
+    // Read config data laid out as above into nf, src names it for errors
+    public static void fromBytes(ByteBuffer bb, NORI nf, String src) {
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        if (bb.remaining() < 8 || bb.getInt() != MAGIC)
+            throw new IllegalStateException("Not a binary config: " + src);
+        int ver = bb.getInt();
+        if (ver != VERSION)
+            throw new IllegalStateException("Unknown binary config version: " + ver);
+        getBytes(bb);// name
+        // NORI & GAWI headers
+        nf.fsig = bb.getInt();
+        nf.noriVer = bb.getInt();
+        nf.nParam1 = bb.getInt();
+        nf.nParam2 = bb.getInt();
+        nf.nParam3 = bb.getInt();
+        nf.nParam4 = bb.getInt();
+        nf.nParam5 = bb.getInt();
+        nf.anims = bb.getInt();
+        nf.woGawi = bb.getInt();
+        nf.fsize = bb.getInt();
+        nf.gsig = bb.getInt();
+        nf.gawiVer = bb.getInt();
+        nf.bpp = bb.getInt();
+        nf.compressed = bb.getInt();
+        nf.hasPalette = bb.getInt();
+        nf.gParam4 = bb.getInt();
+        nf.gParam5 = bb.getInt();
+        nf.gParam6 = bb.getInt();
+        nf.gParam7 = bb.getInt();
+        nf.numBMP = bb.getInt();
+        nf.gsize = bb.getInt();
+        // Palette section
+        if (nf.hasPalette == 1) {
+            nf.psig = bb.getInt();
+            nf.palVer = bb.getInt();
+            nf.pParam1 = bb.getInt();
+            nf.pParam2 = bb.getInt();
+            nf.pParam3 = bb.getInt();
+            nf.pParam4 = bb.getInt();
+            nf.divided = bb.getInt();
+            nf.psize = bb.getInt();
+            nf.mainS = bb.getInt();
+            nf.mainE = bb.getInt();
+            nf.pb = getBytes(bb);
+        }
+        nf.bpos = bb.getInt();
+        nf.apos = bb.getInt();
+        nf.xtraFrameBytes = bb.getInt();
+        nf.xfb = getBytes(bb);
+        // BMP offsets & specs
+        nf.bmpOffsets = getInts(bb, nf.numBMP);
+        nf.bmpSpecs = new int[nf.numBMP][];
+        for (int i = 0; i < nf.numBMP; i++) {
+            nf.bmpSpecs[i] = getInts(bb, 7);
+        }
+        // Animations, frames, & planes
+        nf.animOffsets = getInts(bb, nf.anims);
+        nf.animName = new String[nf.anims];
+        for (int i = 0; i < nf.anims; i++) {
+            nf.animName[i] = new String(getBytes(bb), StandardCharsets.UTF_8);
+        }
+        nf.frames = getInts(bb, nf.anims);
+        int frames = bb.getInt();
+        nf.frameOffsets = getInts(bb, frames);
+        nf.frameData = getInts(bb, frames * 2);
+        int planes = bb.getInt();
+        nf.planeData = getInts(bb, planes * 7);
+        // The index tables aren't stored, they come from the counts
+        nf.animFrame = new int[nf.anims + 1];
+        for (int i = 0; i < nf.anims; i++) {
+            nf.animFrame[i + 1] = nf.animFrame[i] + nf.frames[i];
+        }
+        nf.framePlane = new int[frames + 1];
+        for (int g = 0; g < frames; g++) {
+            nf.framePlane[g + 1] = nf.framePlane[g] + nf.frameData[g * 2 + 1];
+        }
+        if (nf.animFrame[nf.anims] != frames || nf.framePlane[frames] != planes)
+            throw new IllegalStateException("Frame/plane counts don't add up in " + src);
+    }
+
+    // Turns a binary config into an xml one, or the other way around
+    public static void convert(File config) {
+        try {
+            NORI nf = Create.readConfig(config);
+            boolean toBin = !isBinCfg(config);
+            Analyze.writeConfig(nf, toBin);
+            String ext = toBin ? EXT : ".cfg";
+            out.println("Converted: " + config + " -> " + nf.dir + nf.name + ext);
+        } catch(Exception ex) {
+            out.println("Error in (CONV):\n"+ex);
+        }
+    }
+
+    private static void putInts(ByteBuffer bb, int[] src, int start, int n) {
+        bb.asIntBuffer().put(src, start, n);
+        bb.position(bb.position() + n * 4);
+    }
+
+    private static int[] getInts(ByteBuffer bb, int n) {
+        if (n < 0 || n > bb.remaining() / 4) throw new BufferUnderflowException();
+        int[] ints = new int[n];
+        bb.asIntBuffer().get(ints);
+        bb.position(bb.position() + n * 4);
+        return ints;
+    }
+
+    private static void putBytes(ByteBuffer bb, byte[] src) {
+        bb.putInt(src.length);
+        bb.put(src);
+    }
+
+    private static byte[] getBytes(ByteBuffer bb) {
+        int n = bb.getInt();
+        if (n < 0 || n > bb.remaining()) throw new BufferUnderflowException();
+        byte[] bytes = new byte[n];
+        bb.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] utf8(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,313 @@
+package com.github.tricksteronline;/*
+Cache.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.zip.CRC32;
+import static java.lang.System.out;
+/**
+Class Description:
+An on-disk cache of analyzed NORI files, so a repeat run over files that
+haven't changed can skip the Analyzer, and the inflating of .bac files.
+
+Dev Notes:
+Each file gets an entry named after the SHA-1 of its full path. The .tnc file
+holds the analyzed NORI, in the binary config layout (see BinCfg), and the .inf
+file holds the inflated NORI data (only kept with --cache-payload). Both start
+with the same key: magic, version, path, size, mtime & the CRC32 of the file,
+and a part of an entry is only used if all of those still match the file.
+The file still gets read for the CRC, but that is cheap next to the parsing
+and inflating it saves.
+The entries are kept in least-recently-used order in memory, which is made
+from the file times once at start. A hit touches the file times, so the order
+carries over to the next run. Once the cache is over its size cap, the least
+recently used entries are deleted until it fits again.
+With no directory, the entries are only kept in memory (for the daemon, which
+keeps them between jobs), in the same layout & under the same size cap.
+
+Development Priority: LOW
+*/
+public class Cache {
+    // class variables
+    public static final int MAGIC = 0x45434E54, VERSION = 1;
+    public static final String MODEL = ".tnc", PAYLOAD = ".inf";
+    public File dir;
+    public long maxBytes, bytes=0;
+    public boolean keepPayload;
+    // entry name -> bytes on disk, least recently used first
+    private LinkedHashMap<String, Long> lru = new LinkedHashMap<>(16, 0.75f, true);
+    // entry files, when there is no directory (name + ext -> bytes)
+    private Map<String, byte[]> mem = new HashMap<>();
+
+    // What identifies one file, & which parts of its entry are still good
+    public static class Key {
+        public String name, path;
+        public long size, mtime, crc;
+        public boolean model, payload;
+    }
+
+    // constructor for Cache class
+    public Cache(File cacheDir, long max, boolean payloads) {
+        dir = cacheDir;
+        maxBytes = max;
+        keepPayload = payloads;
+        if (dir == null) return;
+        try {
+            Files.createDirectories(dir.toPath());
+            loadIndex();
+        } catch(IOException ex) {
+            out.println("Error in (CACHE):\n"+ex);
+        }
+    }
+
+    // Puts the entries already on disk in order, oldest use first
+    private void loadIndex() {
+        Map<String, long[]> found = new HashMap<>();
+        File[] fl = dir.listFiles();
+        if (fl == null) return;
+        for (File f : fl) {
+            String n = f.getName();
+            if (!(n.endsWith(MODEL) || n.endsWith(PAYLOAD))) continue;
+            long[] e = found.computeIfAbsent(n.substring(0, n.length() - 4),
+                x -> new long[2]);
+            e[0] += f.length();
+            e[1] = Math.max(e[1], f.lastModified());
+        }
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>(found.entrySet());
+        entries.sort((a, b) -> Long.compare(a.getValue()[1], b.getValue()[1]));
+        for (Map.Entry<String, long[]> e : entries) {
+            lru.put(e.getKey(), e.getValue()[0]);
+            bytes += e.getValue()[0];
+        }
+        evict();
+    }
+
+    // Makes the key for a file from its loaded bytes, & checks its entry
+    public Key key(File file, ByteBuffer raw) throws IOException {
+        Key k = new Key();
+        k.path = file.getCanonicalPath();
+        k.size = file.length();
+        k.mtime = file.lastModified();
+        CRC32 crc = new CRC32();
+        ByteBuffer all = raw.duplicate();
+        ((Buffer) all).clear();
+        crc.update(all);
+        k.crc = crc.getValue();
+        k.name = sha1(k.path);
+        k.model = matches(k, MODEL);
+        k.payload = matches(k, PAYLOAD);
+        return k;
+    }
+
+    // Fills nf from the cached model, returns false if there isn't a good one
+    public boolean model(Key k, NORI nf) {
+        if (!k.model) return false;
+        try {
+            ByteBuffer bb = readEntry(k, MODEL);
+            BinCfg.fromBytes(bb, nf, k.name + MODEL);
+            // Put back what the Analyzer makes that the config doesn't keep
+            nf.bmpOffsets = Arrays.copyOf(nf.bmpOffsets, nf.numBMP + 1);
+            nf.animOffsets = Arrays.copyOf(nf.animOffsets, nf.anims + 1);
+            if (nf.hasPalette == 1) {
+                nf.palette = Analyzer.toColors(nf.pb);
+                nf.pal24 = JBL.packPalette(nf.palette);
+            }
+            nf.analyzed = true;
+            out.println("========================================================");
+            out.println("Filename: " + nf.name);
+            out.println("Analysis loaded from cache");
+            return true;
+        } catch(Exception ex) {
+            out.println("Error in (CACHE):\n"+ex);
+            k.model = false;
+            return false;
+        }
+    }
+
+    // The cached inflated data, or null if there isn't any
+    public ByteBuffer payload(Key k) {
+        if (!k.payload) return null;
+        try {
+            ByteBuffer bb = readEntry(k, PAYLOAD);
+            out.println("Inflated data loaded from cache");
+            return bb.slice().order(ByteOrder.LITTLE_ENDIAN);
+        } catch(Exception ex) {
+            out.println("Error in (CACHE):\n"+ex);
+            k.payload = false;
+            return null;
+        }
+    }
+
+    // Saves whatever the entry doesn't have yet: the model once nf has been
+    // analyzed, & the inflated data if it was inflated & those are kept
+    public void store(Key k, NORI nf, ByteBuffer payload) {
+        try {
+            if (!k.model && nf.analyzed)
+                writeEntry(k, MODEL, ByteBuffer.wrap(BinCfg.toBytes(nf)));
+            if (!k.payload && keepPayload && payload != null) {
+                ByteBuffer all = payload.duplicate();
+                ((Buffer) all).clear();
+                writeEntry(k, PAYLOAD, all);
+            }
+        } catch(Exception ex) {
+            out.println("Error in (CACHE):\n"+ex);
+        }
+    }
+
+    // The part of an entry after its key, the key was checked by key()
+    private ByteBuffer readEntry(Key k, String ext) throws IOException {
+        byte[] ba;
+        if (dir == null) {
+            synchronized (this) {
+                ba = mem.get(k.name + ext);
+            }
+            if (ba == null) throw new IllegalStateException("Cache entry gone: " + k.name);
+        } else {
+            ba = Files.readAllBytes(new File(dir, k.name + ext).toPath());
+        }
+        ByteBuffer bb = ByteBuffer.wrap(ba).order(ByteOrder.LITTLE_ENDIAN);
+        if (!keyMatches(bb, k)) throw new IllegalStateException("Cache entry changed: " + k.name);
+        touch(k);
+        return bb;
+    }
+
+    // Writes to a temp file first, so a half written entry is never used
+    private void writeEntry(Key k, String ext, ByteBuffer data) throws IOException {
+        if (dir == null) {
+            ByteBuffer hdr = keyBytes(k);
+            byte[] ba = new byte[hdr.remaining() + data.remaining()];
+            hdr.get(ba, 0, hdr.remaining());
+            data.get(ba, ba.length - data.remaining(), data.remaining());
+            synchronized (this) {
+                mem.put(k.name + ext, ba);
+                updated(k.name);
+            }
+            return;
+        }
+        Path target = new File(dir, k.name + ext).toPath();
+        Path tmp = new File(dir, k.name + ext + "." + Thread.currentThread().getId()).toPath();
+        ByteBuffer hdr = keyBytes(k);
+        try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] parts = {hdr, data};
+            while (data.hasRemaining()) fc.write(parts);
+        }
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch(AtomicMoveNotSupportedException ex) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        synchronized (this) {
+            updated(k.name);
+        }
+    }
+
+    // Recounts the size of an entry after one of its files changed
+    private synchronized void updated(String name) {
+        long size = size(name + MODEL) + size(name + PAYLOAD);
+        Long old = lru.put(name, size);
+        bytes += size - ((old == null) ? 0 : old);
+        evict();
+    }
+
+    private long size(String file) {
+        if (dir != null) return new File(dir, file).length();
+        byte[] ba = mem.get(file);
+        return (ba == null) ? 0 : ba.length;
+    }
+
+    // Deletes the least recently used entries until the cache fits its cap
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, Long>> it = lru.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            if (dir == null) {
+                mem.remove(e.getKey() + MODEL);
+                mem.remove(e.getKey() + PAYLOAD);
+            } else {
+                new File(dir, e.getKey() + MODEL).delete();
+                new File(dir, e.getKey() + PAYLOAD).delete();
+            }
+            bytes -= e.getValue();
+            it.remove();
+        }
+    }
+
+    // Marks an entry as just used, here & on disk
+    private synchronized void touch(Key k) {
+        lru.get(k.name);
+        if (dir == null) return;
+        long now = System.currentTimeMillis();
+        new File(dir, k.name + MODEL).setLastModified(now);
+        new File(dir, k.name + PAYLOAD).setLastModified(now);
+    }
+
+    private static ByteBuffer keyBytes(Key k) {
+        byte[] path = k.path.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer bb = ByteBuffer.allocate(12 + path.length + 24).order(ByteOrder.LITTLE_ENDIAN);
+        bb.putInt(MAGIC).putInt(VERSION).putInt(path.length).put(path);
+        bb.putLong(k.size).putLong(k.mtime).putLong(k.crc);
+        ((Buffer) bb).flip();
+        return bb;
+    }
+
+    // Checks the key at the start of bb, leaves bb right after it
+    private static boolean keyMatches(ByteBuffer bb, Key k) {
+        ByteBuffer want = keyBytes(k);
+        if (bb.remaining() < want.remaining()) return false;
+        ByteBuffer have = bb.duplicate();
+        ((Buffer) have).limit(have.position() + want.remaining());
+        if (!have.equals(want)) return false;
+        bb.position(bb.position() + want.remaining());
+        return true;
+    }
+
+    // Reads just the key of an entry file, to see if it is still good
+    private boolean matches(Key k, String ext) throws IOException {
+        if (dir == null) {
+            byte[] ba;
+            synchronized (this) {
+                ba = mem.get(k.name + ext);
+            }
+            return ba != null && keyMatches(ByteBuffer.wrap(ba), k);
+        }
+        File f = new File(dir, k.name + ext);
+        if (!f.isFile()) return false;
+        ByteBuffer bb = ByteBuffer.allocate(keyBytes(k).remaining());
+        try (FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            while (bb.hasRemaining() && fc.read(bb) > 0) {}
+        }
+        ((Buffer) bb).flip();
+        return keyMatches(bb, k);
+    }
+
+    private static String sha1(String str) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-1")
+                .digest(str.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : d) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch(Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.github.tricksteronline;/*
+Client.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+/**
+Class Description:
+The thin client for the Daemon. It takes the same args as TNT itself, sends
+them to the daemon, & prints what comes back:
+  java -cp TNT.jar com.github.tricksteronline.Client {mode} {etc}
+
+Dev Notes:
+This has to start fast, or there's no point to the daemon, so it doesn't touch
+any of the other TNT classes (Daemon.PORT & TOKEN_DIR are constants, they get
+copied in).
+The daemon has its own working directory, so file args are made absolute here
+first, keeping a trailing separator since Create needs it on the BMP folder.
+TNT_PORT picks a port other than the default. Every request starts with the
+daemon's token, read from the file only its user can read (see Daemon), so the
+client has to run as the same user as the daemon.
+
+Development Priority: LOW
+*/
+public class Client {
+    public static void main(String[] args) {
+        int port = Daemon.PORT;
+        String env = System.getenv("TNT_PORT");
+        if (env != null) {
+            try {
+                port = Integer.parseInt(env);
+            } catch(NumberFormatException ex) {
+                System.out.println("Warning: Bad TNT_PORT ignored: " + env);
+            }
+        }
+        Path tokenFile = Paths.get(System.getProperty("user.home"), Daemon.TOKEN_DIR,
+            "daemon-" + port + ".token");
+        String token;
+        try {
+            token = new String(Files.readAllBytes(tokenFile), StandardCharsets.UTF_8).trim();
+        } catch(NoSuchFileException ex) {
+            System.out.println("Error: No TNT daemon on port " + port + " (no " + tokenFile + ")");
+            System.exit(1);
+            return;
+        } catch(IOException ex) {
+            System.out.println("Error in (CLIENT):\n"+ex);
+            System.exit(1);
+            return;
+        }
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            OutputStream os = s.getOutputStream();
+            os.write((token + "\n" + request(args) + "\n").getBytes(StandardCharsets.UTF_8));
+            os.flush();
+            InputStream in = s.getInputStream();
+            byte[] buf = new byte[8192];
+            for (int n; (n = in.read(buf)) > 0; ) {
+                System.out.write(buf, 0, n);
+            }
+            System.out.flush();
+        } catch(ConnectException ex) {
+            System.out.println("Error: No TNT daemon on port " + port);
+            System.exit(1);
+        } catch(IOException ex) {
+            System.out.println("Error in (CLIENT):\n"+ex);
+            System.exit(1);
+        }
+    }
+
+    // The args as one tab separated line, with the paths made absolute
+    private static String request(String[] args) {
+        StringBuilder sb = new StringBuilder();
+        boolean modeSeen = false;
+        for (String arg : args) {
+            if (arg.indexOf('\t') >= 0 || arg.indexOf('\n') >= 0)
+                throw new IllegalArgumentException("Tab or new line in arg: " + arg);
+            if (arg.startsWith("--cache=")) {
+                arg = "--cache=" + absolute(arg.substring(8));
+            } else if (arg.startsWith("--dedup=")) {
+                arg = "--dedup=" + absolute(arg.substring(8));
+            } else if (arg.equals("--dedup")) {
+                // the default store is in the working directory
+                arg = "--dedup=" + absolute(".tnt-store");
+            } else if (!arg.startsWith("--")) {
+                if (modeSeen) arg = absolute(arg);
+                modeSeen = true;
+            }
+            if (sb.length() > 0) sb.append('\t');
+            sb.append(arg);
+        }
+        return sb.toString();
+    }
+
+    private static String absolute(String path) {
+        String abs = new File(path).getAbsolutePath();
+        boolean dir = path.endsWith("/") || path.endsWith(File.separator);
+        if (dir && !abs.endsWith(File.separator)) abs += File.separator;
+        return abs;
+    }
+}
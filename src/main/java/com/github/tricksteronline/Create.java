@@ -17,10 +17,11 @@ import com.github.tricksteronline.JBL;
 import com.github.tricksteronline.NORI;
 import java.io.*;
 import java.nio.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.util.*;
-import javax.xml.parsers.*;
-import org.w3c.dom.*;
+import java.util.concurrent.*;
+import javax.xml.stream.*;
 import static java.lang.System.out;
 /**
 Class Description:
@@ -31,53 +32,70 @@ config files which will be specified by user input.
 Dev Notes:
 Creating new NORI files is honestly of little use to the Libre Trickster project
 and this part of the program is little more than a curiosity.
+The file is written straight to disk one section (& one bitmap) at a time. The
+BMP go first, since a compressed file's dlen & offsets come from encoding them,
+and the headers go in last once all the sizes are known.
 
 Development Priority: LOW
 */
 public class Create {
     // class variables
-    public static int maxNoF=0,maxNoP=0,pos=0;
-    public static int pdex0=0,pdex1=0,pdex2=0,pdex3=0,pdex4=0,pdex5=0,pdex6=0;
-    public static byte[] nfba, palette, imgData, fba;
-    public static int[] bmp_id, point_x, point_y, opacity, flip_axis;
-    public static int[] blend_mode, flag_param;
+    public byte[] palette, fba;
+    // most BMP file bytes read ahead at once when loading them in parallel
+    public static long maxInFlight = 64L << 20;
+    // wrap the new file in zlib (like the .bac files), see Deflate for options
+    public static boolean zlib=false;
+    // the NORI file being created & its own bitmap library state
+    private NORI nf = new NORI();
+    private JBL jbl = new JBL();
+    // 24-bit color -> palette index, for the BMP of 8-bit files
+    private Map<Integer, Integer> palIndex;
     // constructor for Create class
     public Create(File config, String bmpDir) {
         try {
             out.println("\nGathering data from config file...");
-            // Set the NORI file vars
-            NORI.setNFileVars(config,1);
-            NORI.checkDir();
-            out.println("NORI filename: "+ NORI.name);
-            // Get XML Data
-            getConfigData(config);
-            // Setup NORI file byte array and bytebuffer
-            nfba = new byte[NORI.fsize];
-            ByteBuffer nbb = mkLEBB(nfba);
-            // Add NORI header to the nfba
-            addNoriHdr(nbb);
-            // Add GAWI header to the nfba
-            addGawiHdr(nbb);
-            // Add Palette section if it exists; it won't, future-proofing a bit
-            if (NORI.hasPalette ==1) addPalSection(nbb);
-            // Add BMP Offsets
-            addBmpOffsets(nbb);
-            // Get image data from BMP files
-            imgData = getImgData(bmpDir);
-            ByteBuffer dbb = mkLEBB(imgData);
-            // Add BMP specs and data
-            addBmpSection(nbb, dbb);
-            // Add Animation Offsets
-            addAnimOffsets(nbb);
-            // Get XFB
-            NORI.xfb = file2BA(NORI.dir + "xfb" + NORI.noriVer + ".bin");
-            // Add Anims, Frames, Plane Data, & xfb
-            addAnims(nbb);
-            out.println("Finalizing file...");
-
-            // Set BMP name and location, then write BMP to file
-            File nori = new File(NORI.dir + NORI.name);
-            Files.write(nori.toPath(),nfba);
+            // Get config data, xml or binary, and the files that go with it
+            loadConfig(config);
+            out.println("NORI filename: "+ nf.name);
+            if (nf.bpp == 8 && nf.pb != null) palIndex = indexPalette(nf.pb);
+            // Write the file a section at a time, instead of making it all in
+            // memory first, so only a single bitmap is ever held at once
+            File target = new File(nf.dir + nf.name);
+            File nori = zlib ? new File(nf.dir + nf.name + ".tmp") : target;
+            try (FileChannel fc = FileChannel.open(nori.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                // Add BMP specs and data, from the BMP files, after the room
+                // for the headers & the BMP offsets
+                setBpos();
+                fc.position(nf.bpos);
+                int bmpBytes = addBmpSection(fc, bmpDir);
+                // Work out the sizes & offsets from what went in the file
+                setLayout(bmpBytes);
+                // Add Animation Offsets, Anims, Frames, Plane Data, & xfb
+                addAnimSection(fc);
+                out.println("Finalizing file...");
+                // Headers go in last, now that all the sizes are known
+                ByteBuffer hbb = mkLEBB(new byte[nf.bpos]);
+                // Add NORI header
+                addNoriHdr(hbb);
+                // Add GAWI header
+                addGawiHdr(hbb);
+                // Add Palette section if it exists
+                if (nf.hasPalette ==1) addPalSection(hbb);
+                // Add BMP Offsets
+                addBmpOffsets(hbb);
+                fc.position(0);
+                writeAll(fc, hbb);
+            }
+            // The finished NORI file gets deflated into the real one
+            if (zlib) {
+                try {
+                    Deflate.wrap(nori, target);
+                } finally {
+                    Files.deleteIfExists(nori.toPath());
+                }
+            }
             out.println("NORI File Creation Complete.\n");
         }
         catch (Exception ex)
@@ -86,185 +104,392 @@ public class Create {
         }
     }
 
-    private static void addNoriHdr(ByteBuffer bb) {
-        bb.putInt(NORI.fsig);
-        bb.putInt(NORI.noriVer);
-        bb.putInt(NORI.nParam1);
-        bb.putInt(NORI.nParam2);
-        bb.putInt(NORI.nParam3);
-        bb.putInt(NORI.nParam4);
-        bb.putInt(NORI.nParam5);
-        bb.putInt(NORI.anims);
-        bb.putInt(NORI.woGawi);
-        bb.putInt(NORI.fsize);
-    }
-
-    private static void addGawiHdr(ByteBuffer bb) {
-        bb.putInt(NORI.gsig);
-        bb.putInt(NORI.gawiVer);
-        bb.putInt(NORI.bpp);
-        bb.putInt(NORI.compressed);
-        bb.putInt(NORI.hasPalette);
-        bb.putInt(NORI.gParam4);
-        bb.putInt(NORI.gParam5);
-        bb.putInt(NORI.gParam6);
-        bb.putInt(NORI.gParam7);
-        bb.putInt(NORI.numBMP);
-        bb.putInt(NORI.gsize);
-    }
-
-    private static void addPalSection(ByteBuffer bb) {
-        bb.putInt(NORI.psig);
-        bb.putInt(NORI.palVer);
-        bb.putInt(NORI.pParam1);
-        bb.putInt(NORI.pParam2);
-        bb.putInt(NORI.pParam3);
-        bb.putInt(NORI.pParam4);
-        bb.putInt(NORI.divided);
-        bb.putInt(NORI.psize);
-        NORI.pb = file2BA(NORI.dir + NORI.name +"_pal.bin");
-        bb.put(NORI.pb);
-        if (NORI.psize ==808) {
-            bb.putInt(NORI.mainS);
-            bb.putInt(NORI.mainE);
+    // Where the BMP data starts: after the headers, palette, & BMP offsets
+    private void setBpos() {
+        int palSize = 0;
+        if (nf.hasPalette == 1)
+            palSize = 32 + nf.pb.length + ((nf.psize == 808) ? 8 : 0);
+        nf.bpos = 40 + 44 + palSize + nf.numBMP * 4;
+    }
+
+    // Room for a BMP at offset off (from bpos): its specs & dlen bytes. Only
+    // BMP with subsets (dcount > 1) still go by the config's offsets, since
+    // their extra images aren't in the BMP files.
+    private int bmpSlot(int i, int off, int[] cfgOffsets) {
+        int size = 28 + nf.bmpSpecs[i][1];
+        if (nf.bmpSpecs[i][0] != 1) {
+            int cfgSize = (i != nf.numBMP - 1)
+                ? cfgOffsets[i + 1] - cfgOffsets[i]
+                : (40 + nf.gsize) - (nf.bpos + off);
+            size = Math.max(size, cfgSize);
         }
+        return size;
     }
 
-    private static void addBmpOffsets(ByteBuffer bb) {
-        for (int i = 0; i < NORI.numBMP; i++) {
-            bb.putInt(NORI.bmpOffsets[i]);
+    // Sets fsize, woGawi, gsize, & the animation offsets from the sizes of
+    // what actually goes in the file
+    private void setLayout(int bmpBytes) {
+        int gsize = nf.bpos + bmpBytes - 40;
+        // Animations, offsets are from apos, frame offsets are from the end of
+        // each animation's frame offsets
+        nf.apos = 40 + gsize + nf.anims * 4;
+        int aoff = 0;
+        for (int a = 0; a < nf.anims; a++) {
+            nf.animOffsets[a] = aoff;
+            int foff = 0;
+            for (int f = 0; f < nf.frames[a]; f++) {
+                nf.frameOffsets[nf.frame(a,f)] = foff;
+                foff += 8 + nf.frameData[nf.frame(a,f)*2+1] * 28 + nf.xfb.length;
+            }
+            aoff += 32 + 4 + nf.frames[a] * 4 + foff;
         }
+        int fsize = nf.apos + aoff;
+        // Let the user know if the config had them wrong
+        sizeCheck("gsize", nf.gsize, gsize);
+        sizeCheck("fsize", nf.fsize, fsize);
+        sizeCheck("woGawi", nf.woGawi, fsize - gsize);
+        nf.gsize = gsize;
+        nf.fsize = fsize;
+        nf.woGawi = fsize - gsize;
+    }
+
+    private void sizeCheck(String name, int cfgVal, int val) {
+        if (cfgVal != val)
+            out.println("Note: "+ name +" is "+ val +", not "+ cfgVal +" as in the config");
     }
 
-    private static byte[] getImgData(String bmpDir) {
-        // Setup byte array where pixel data will go
-        int ids=0;
-        for (int i = 0; i < NORI.numBMP; i++) {
-            ids += NORI.bmpSpecs[i][1];
+    private void addNoriHdr(ByteBuffer bb) {
+        bb.putInt(nf.fsig);
+        bb.putInt(nf.noriVer);
+        bb.putInt(nf.nParam1);
+        bb.putInt(nf.nParam2);
+        bb.putInt(nf.nParam3);
+        bb.putInt(nf.nParam4);
+        bb.putInt(nf.nParam5);
+        bb.putInt(nf.anims);
+        bb.putInt(nf.woGawi);
+        bb.putInt(nf.fsize);
+    }
+
+    private void addGawiHdr(ByteBuffer bb) {
+        bb.putInt(nf.gsig);
+        bb.putInt(nf.gawiVer);
+        bb.putInt(nf.bpp);
+        bb.putInt(nf.compressed);
+        bb.putInt(nf.hasPalette);
+        bb.putInt(nf.gParam4);
+        bb.putInt(nf.gParam5);
+        bb.putInt(nf.gParam6);
+        bb.putInt(nf.gParam7);
+        bb.putInt(nf.numBMP);
+        bb.putInt(nf.gsize);
+    }
+
+    private void addPalSection(ByteBuffer bb) {
+        bb.putInt(nf.psig);
+        bb.putInt(nf.palVer);
+        bb.putInt(nf.pParam1);
+        bb.putInt(nf.pParam2);
+        bb.putInt(nf.pParam3);
+        bb.putInt(nf.pParam4);
+        bb.putInt(nf.divided);
+        bb.putInt(nf.psize);
+        bb.put(nf.pb);
+        if (nf.psize ==808) {
+            bb.putInt(nf.mainS);
+            bb.putInt(nf.mainE);
         }
-        byte[] ba = new byte[ids];
-        ByteBuffer bb = mkLEBB(ba);
-        try {
-            // Gather the list of bmp files
-            File dataDir = new File(bmpDir);
-            String[] tmpFL = dataDir.list();
-            String[] fl = cleanFL(tmpFL);
-            // Alphabetic ordering
-            Arrays.sort(fl);
-            // Pull the file contents into a byte array for later use
-            out.println("Absorbing BMP files:");
-            for (int i=0; i < fl.length; i++) {
-                // output full file name
-                out.println(bmpDir + fl[i]);
-                // read bmp into a byte array, then wrap in a bytebuffer
-                byte[] bmp = file2BA(bmpDir + fl[i]);
-                ByteBuffer bbb = mkLEBB(bmp);
-                // Strip the header off the image
-                bbb.position(10);
-                int pxStart = bbb.getInt();
-                //out.println("pxStart: "+pxStart);
-                int pxLen = bbb.capacity() - pxStart;
-                //out.println("pxLength: "+pxLen);
-                bbb.position(pxStart);
-                byte[] hdrless = new byte[pxLen];
-                bbb.get(hdrless,0,pxLen);
-                // Set BMP header vars from xml data
-                JBL.setBmpVars(NORI.bmpSpecs[i][2], NORI.bmpSpecs[i][3], NORI.bpp);
-                // NORI format uses top-down scanlines
-                byte[] revData = JBL.reverseRows(hdrless);
-                // Strip any padding on the pixels
-                byte[] rawData = JBL.stripPadding(revData);
-                // Add raw data to ba byte array
-                bb.put(rawData);
-            }
+    }
+
+    // Compressed files store each offset 28 less per BMP before it, the
+    // reverse of what Analyzer does when it reads them
+    private void addBmpOffsets(ByteBuffer bb) {
+        for (int i = 0; i < nf.numBMP; i++) {
+            int fix = (nf.compressed == 1) ? i * 28 : 0;
+            bb.putInt(nf.bmpOffsets[i] - fix);
         }
-        catch (Exception ex) {
-            out.println("Error in (getImgData):\n"+ex);
+    }
+
+    // Get the pixel data of a BMP file, the way NORI stores it
+    private byte[] getImgData(File bmpFile, int i, JBL jbl) throws IOException {
+        // read bmp into a byte array, then wrap in a bytebuffer
+        ByteBuffer bbb = mkLEBB(Files.readAllBytes(bmpFile.toPath()));
+        // Strip the header off the image
+        bbb.position(10);
+        int pxStart = bbb.getInt();
+        int bmpBpp = bbb.getShort(28);
+        int pxLen = bbb.capacity() - pxStart;
+        bbb.position(pxStart);
+        byte[] hdrless = new byte[pxLen];
+        bbb.get(hdrless,0,pxLen);
+        // Set BMP header vars from config data, & the BMP's own bit depth
+        jbl.setBmpVars(nf.bmpSpecs[i][2], nf.bmpSpecs[i][3], bmpBpp);
+        // NORI format uses top-down scanlines
+        byte[] revData = jbl.reverseRows(hdrless);
+        // Strip any padding on the pixels
+        byte[] data = jbl.stripPadding(revData);
+        if (bmpBpp == nf.bpp) return data;
+        // 8-bit NORI get extracted as 24-bit BMP, so they go back through
+        // the palette
+        if (nf.bpp == 8 && bmpBpp == 24) return toIndexes(data, i);
+        throw new IOException("BMP id "+ i +" is "+ bmpBpp +"-bit, the NORI is "
+            + nf.bpp +"-bit");
+    }
+
+    // Turns 24-bit pixels back into the palette indexes they came from
+    private byte[] toIndexes(byte[] rgb24, int i) throws IOException {
+        if (palIndex == null) throw new IOException("No palette for 8-bit BMP id: " + i);
+        byte[] px = new byte[rgb24.length / 3];
+        for (int p = 0; p < px.length; p++) {
+            int x = p * 3;
+            int c = (rgb24[x] & 0xFF) | (rgb24[x + 1] & 0xFF) << 8
+                | (rgb24[x + 2] & 0xFF) << 16;
+            Integer index = palIndex.get(c);
+            if (index == null) {
+                throw new IOException(String.format(
+                    "BMP id %d has a color not in the palette: #%06X", i, c));
+            }
+            px[p] = index.byteValue();
         }
-        return ba;
+        return px;
     }
 
-    private static void addBmpSection(ByteBuffer bb, ByteBuffer dbb) {
+    // The palette index of each color, the way Extract makes them: index 0,
+    // the bg, is magenta. A color that is in the palette twice gets the first.
+    private static Map<Integer, Integer> indexPalette(byte[] pb) {
+        byte[] bgPb = pb.clone();
+        bgPb[0] = (byte)255;
+        bgPb[1] = 0;
+        bgPb[2] = (byte)255;
+        int[] pal24 = JBL.packPalette(Analyzer.toColors(bgPb));
+        Map<Integer, Integer> index = new HashMap<>();
+        for (int c = 255; c >= 0; c--) index.put(pal24[c], c);
+        return index;
+    }
+
+    // Each BMP goes out as its specs and then its data, one at a time. The
+    // BMP offsets are set as they go, the bytes written are returned.
+    private int addBmpSection(FileChannel fc, String bmpDir) throws IOException {
         String dcErr,manualFix;
         dcErr="Error: dcount not 1, space was added for BMP id: ";
-        manualFix="To solve, manually fix: fsize, gsize, bmpOffsets, & dcount";
-        for (int i = 0; i < NORI.numBMP; i++) {
-            int addSpace;
-
-            bb.putInt(NORI.bmpSpecs[i][0]);
-            bb.putInt(NORI.bmpSpecs[i][1]);
-            bb.putInt(NORI.bmpSpecs[i][2]);
-            bb.putInt(NORI.bmpSpecs[i][3]);
-            bb.putInt(NORI.bmpSpecs[i][4]);
-            bb.putInt(NORI.bmpSpecs[i][5]);
-            bb.putInt(NORI.bmpSpecs[i][6]);
-
-            byte[] data = new byte[NORI.bmpSpecs[i][1]];
-            dbb.get(data,0, NORI.bmpSpecs[i][1]);
-            bb.put(data);
-            pos = bb.position();
-            if (NORI.bmpSpecs[i][0] != 1) {
-                if (i != (NORI.numBMP -1)) {
-                    addSpace = NORI.bmpOffsets[i + 1]- NORI.bmpOffsets[i] - data.length;
+        manualFix="To solve, manually add the subset images & fix their dcount";
+        // Gather the list of bmp files, in alphabetic order
+        String[] fl = cleanFL((new File(bmpDir)).list());
+        Arrays.sort(fl);
+        File[] files = new File[nf.numBMP];
+        for (int i = 0; i < nf.numBMP && i < fl.length; i++) {
+            files[i] = new File(bmpDir + fl[i]);
+        }
+        int[] cfgOffsets = nf.bmpOffsets;
+        nf.bmpOffsets = new int[nf.numBMP];
+        int off = 0;
+        // With a bmp pool, the files after this one are read & converted
+        // while it gets written, but still written in order
+        ForkJoinPool pool = Extract.bmpPool;
+        ArrayDeque<Future<byte[]>> ahead = new ArrayDeque<>();
+        long[] fileLen = new long[nf.numBMP];
+        long held = 0;
+        int next = 0;
+        out.println("Absorbing BMP files:");
+        try {
+            for (int i = 0; i < nf.numBMP; i++) {
+                if (pool != null) {
+                    // Stay under the limits, but always have this one going
+                    int window = pool.getParallelism() * 2;
+                    while (next < nf.numBMP && (next == i || (next - i < window
+                            && held + bmpLen(files[next]) <= maxInFlight))) {
+                        fileLen[next] = bmpLen(files[next]);
+                        held += fileLen[next];
+                        ahead.add(pool.submit(loadImg(files[next], next)));
+                        next++;
+                    }
+                }
+                byte[] data = null;
+                if (files[i] != null) {
+                    // output full file name
+                    out.println(files[i].getPath());
+                    try {
+                        data = (pool != null) ? ahead.poll().get()
+                            : getBmpData(files[i], i, jbl);
+                    } catch (ExecutionException ex) {
+                        out.println("Error in (getImgData):\n"+ex.getCause());
+                    } catch (Exception ex) {
+                        out.println("Error in (getImgData):\n"+ex);
+                    }
                 } else {
-                    addSpace = (NORI.gsize + 40) - pos;
+                    if (pool != null) ahead.poll();
+                    out.println("Error: No BMP file for BMP id: " + i);
                 }
-                out.println(dcErr + i + "\n" + manualFix);
-                bb.position(pos + addSpace);
+                held -= fileLen[i];
+                // A compressed BMP is as long as its encoding, even a blank one
+                if (nf.compressed == 1) {
+                    if (data == null) data = getBmpData(null, i, jbl);
+                    nf.bmpSpecs[i][1] = data.length;
+                }
+                nf.bmpOffsets[i] = off;
+                ByteBuffer bb = mkLEBB(new byte[bmpSlot(i, off, cfgOffsets)]);
+                for (int x = 0; x < 7; x++) {
+                    bb.putInt(nf.bmpSpecs[i][x]);
+                }
+                if (data != null)
+                    bb.put(data, 0, Math.min(data.length, nf.bmpSpecs[i][1]));
+                if (nf.bmpSpecs[i][0] != 1) out.println(dcErr + i + "\n" + manualFix);
+                // Whatever wasn't filled in is left as zeros
+                bb.position(bb.capacity());
+                off += bb.capacity();
+                writeAll(fc, bb);
             }
+        } finally {
+            // Don't leave anything reading if the write failed
+            for (Future<byte[]> f : ahead) f.cancel(true);
         }
+        return off;
     }
 
-    private static void addAnimOffsets(ByteBuffer bb) {
-        for (int i = 0; i < NORI.anims; i++) {
-            bb.putInt(NORI.animOffsets[i]);
-        }
+    // The data of a BMP the way it goes in the file: RLE encoded for
+    // compressed files. No file gives a blank image (or none if raw).
+    private byte[] getBmpData(File bmpFile, int i, JBL jbl) throws IOException {
+        byte[] data = (bmpFile == null) ? new byte[0] : getImgData(bmpFile, i, jbl);
+        if (nf.compressed != 1) return data;
+        int w = nf.bmpSpecs[i][2], h = nf.bmpSpecs[i][3], Bpp = nf.bpp / 8;
+        return compress(Arrays.copyOf(data, w * h * Bpp), w, h, Bpp);
+    }
+
+    // A job for the bmp pool, each with its own bitmap library state
+    private Callable<byte[]> loadImg(File bmpFile, int i) {
+        return () -> getBmpData(bmpFile, i, new JBL());
+    }
+
+    private static long bmpLen(File bmpFile) {
+        return (bmpFile == null) ? 0 : bmpFile.length();
     }
 
-    private static void addAnims(ByteBuffer bb) {
-        for (int i = 0; i < NORI.anims; i++) {
-            byte[] animName = (NORI.animName[i]).getBytes();
-            pos = bb.position();
-            bb.put(animName);
-            bb.position(pos+32);
-            bb.putInt(NORI.frames[i]);
+    // Animation offsets, then each animation (with its frames & planes)
+    private void addAnimSection(FileChannel fc) throws IOException {
+        ByteBuffer obb = mkLEBB(new byte[nf.anims * 4]);
+        for (int i = 0; i < nf.anims; i++) {
+            obb.putInt(nf.animOffsets[i]);
+        }
+        writeAll(fc, obb);
+        for (int i = 0; i < nf.anims; i++) {
+            int size = (i != nf.anims - 1)
+                ? nf.animOffsets[i + 1] - nf.animOffsets[i]
+                : nf.fsize - nf.apos - nf.animOffsets[i];
+            ByteBuffer bb = mkLEBB(new byte[size]);
+            // Names are EUC-KR, like Analyzer reads them, 32 bytes at most
+            byte[] animName = (nf.animName[i]).getBytes("EUC-KR");
+            bb.put(animName, 0, Math.min(animName.length, 32));
+            bb.position(32);
+            bb.putInt(nf.frames[i]);
             addFrameOffsets(bb,i);
             addFrameData(bb,i);
+            writeAll(fc, bb);
         }
     }
 
-    private static void addFrameOffsets(ByteBuffer bb, int a) {
-        for (int i = 0; i < NORI.frames[a]; i++) {
-            bb.putInt(NORI.frameOffsets[a][i]);
+    private void addFrameOffsets(ByteBuffer bb, int a) {
+        for (int i = 0; i < nf.frames[a]; i++) {
+            bb.putInt(nf.frameOffsets[nf.frame(a,i)]);
         }
     }
 
     // Set actual data for frames (and planes)
-    private static void addFrameData(ByteBuffer bb, int a) {
-        for (int i = 0; i < NORI.frames[a]; i++) {
-            bb.putInt(NORI.frameData[a][i][0]);
-            bb.putInt(NORI.frameData[a][i][1]);
+    private void addFrameData(ByteBuffer bb, int a) {
+        for (int i = 0; i < nf.frames[a]; i++) {
+            int g = nf.frame(a,i);
+            bb.putInt(nf.frameData[g*2]);
+            bb.putInt(nf.frameData[g*2+1]);
             addPlaneData(bb, a, i);
         }
     }
 
-    private static void addPlaneData(ByteBuffer bb, int a, int f) {
-        for (int i = 0; i < NORI.frameData[a][f][1]; i++) {
-            bb.putInt(NORI.planeData[a][f][i][0]);
-            bb.putInt(NORI.planeData[a][f][i][1]);
-            bb.putInt(NORI.planeData[a][f][i][2]);
-            bb.putInt(NORI.planeData[a][f][i][3]);
-            bb.putInt(NORI.planeData[a][f][i][4]);
-            bb.putInt(NORI.planeData[a][f][i][5]);
-            bb.putInt(NORI.planeData[a][f][i][6]);
+    private void addPlaneData(ByteBuffer bb, int a, int f) {
+        int p = nf.plane(a,f,0), planes = nf.frameData[nf.frame(a,f)*2+1];
+        for (int i = 0; i < planes * 7; i++) {
+            bb.putInt(nf.planeData[p + i]);
         }
         // Skip through xtraFrameBytes
-        bb.put(NORI.xfb);
+        bb.put(nf.xfb);
+    }
+
+    // Write everything put in the buffer so far
+    private static void writeAll(FileChannel fc, ByteBuffer bb) throws IOException {
+        ((Buffer) bb).flip();
+        while (bb.hasRemaining()) fc.write(bb);
+    }
+
+    // Custom Run-length Encoding, the reverse of Extract.decompress().
+    // Each scanline gets its encodedSize, then background & foreground runs
+    // until the whole width is covered. Background is RGB555 0x7C1F, RGB24
+    // magenta, or palette index 0, the same as the decompression. Runs are
+    // read back as signed shorts, so one over 32767 pixels takes more pairs.
+    static byte[] compress(byte[] px, int w, int h, int Bpp) {
+        // Worst case: a bg/fg pair every 2 pixels, plus one at each end
+        byte[] enc = new byte[h * (10 + w * 2 + w * Bpp)];
+        int pos = 0;
+        for (int y = 0; y < h; y++) {
+            int lineStart = pos, row = y * w * Bpp, x = 0;
+            pos += 2;
+            while (x < w) {
+                int bg = 0, fg = 0;
+                while (x + bg < w && bg < Short.MAX_VALUE
+                        && isBg(px, row + (x + bg) * Bpp, Bpp)) bg++;
+                while (x + bg + fg < w && fg < Short.MAX_VALUE
+                        && !isBg(px, row + (x + bg + fg) * Bpp, Bpp)) fg++;
+                putShort(enc, pos, bg);
+                putShort(enc, pos + 2, fg);
+                pos += 4;
+                System.arraycopy(px, row + (x + bg) * Bpp, enc, pos, fg * Bpp);
+                pos += fg * Bpp;
+                x += bg + fg;
+            }
+            // encodedSize includes itself, and has to fit in a short
+            if (pos - lineStart > Short.MAX_VALUE)
+                throw new IllegalStateException("Scanline "+y+" is too long to encode");
+            putShort(enc, lineStart, pos - lineStart);
+        }
+        return Arrays.copyOf(enc, pos);
+    }
+
+    private static boolean isBg(byte[] px, int i, int Bpp) {
+        if (Bpp == 2) return px[i] == 0x1F && px[i + 1] == 0x7C;
+        if (Bpp == 3) return px[i] == (byte)0xFF && px[i + 1] == 0 && px[i + 2] == (byte)0xFF;
+        return px[i] == 0;
+    }
+
+    private static void putShort(byte[] ba, int i, int v) {
+        ba[i] = (byte)v;
+        ba[i + 1] = (byte)(v >> 8);
+    }
+
+    // For only reading a config (conversion)
+    private Create() {}
+
+    // Reads a config, xml or binary, into a new NORI object
+    public static NORI readConfig(File config) throws IOException {
+        Create c = new Create();
+        c.loadConfig(config);
+        return c.nf;
+    }
+
+    // Set the NORI file vars, then get the config data. A binary config has
+    // the xfb & palette bytes in it, an xml one has them in their own files.
+    private void loadConfig(File config) throws IOException {
+        nf.setNFileVars(config,1);
+        nf.checkDir();
+        if (BinCfg.isBinCfg(config)) {
+            BinCfg.read(config, nf);
+        } else {
+            getConfigData(config);
+            nf.xfb = file2BA(nf.dir + "xfb" + nf.noriVer + ".bin");
+            if (nf.hasPalette ==1) nf.pb = file2BA(nf.dir + nf.name +"_pal.bin");
+        }
     }
 
     // Cleans the file list, if user is stupid, to make sure only bmp get in
-    private static String[] cleanFL(String[] tmp) {
-        String[] cfl = new String[NORI.numBMP];
+    private String[] cleanFL(String[] tmp) {
+        if (tmp == null) return new String[0];
+        String[] cfl = new String[tmp.length];
         int x=0;
 
         for (String s : tmp) {
@@ -273,161 +498,209 @@ public class Create {
             }
         }
 
-        return cfl;
+        return Arrays.copyOf(cfl, x);
     }
 
-    private static void getConfigData(File config) {
-        try {
-            // Make document object from config file
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbf.newDocumentBuilder();
-            Document cfg = dBuilder.parse(config);
-            cfg.getDocumentElement().normalize();
-            // Set NORI Header and GAWI Header Elements
-            Element noriHdr = getElementByTagName(cfg,"NORI_HDR");
-            Element gawiHdr = getElementByTagName(cfg,"GAWI_HDR");
-            // Get NORI Header Data
-            NORI.fsig = getIntVal(noriHdr,"fsig");
-            NORI.noriVer = getIntVal(noriHdr,"noriver");
-            NORI.nParam1 = getIntVal(noriHdr,"nparam1");
-            NORI.nParam2 = getIntVal(noriHdr,"nparam2");
-            NORI.nParam3 = getIntVal(noriHdr,"nparam3");
-            NORI.nParam4 = getIntVal(noriHdr,"nparam4");
-            NORI.nParam5 = getIntVal(noriHdr,"nparam5");
-            NORI.anims = getIntVal(noriHdr,"anims");
-            NORI.woGawi = getIntVal(noriHdr,"woGawi");
-            NORI.fsize = getIntVal(noriHdr,"fsize");
-            // Get GAWI Header Data
-            NORI.gsig = getIntVal(gawiHdr,"gsig");
-            NORI.gawiVer = getIntVal(gawiHdr,"gawiver");
-            NORI.bpp = getIntVal(gawiHdr,"bpp");
-            NORI.compressed = getIntVal(gawiHdr,"compressed");
-            NORI.hasPalette = getIntVal(gawiHdr,"hasPalette");
-            NORI.gParam4 = getIntVal(gawiHdr,"gparam4");
-            NORI.gParam5 = getIntVal(gawiHdr,"gparam5");
-            NORI.gParam6 = getIntVal(gawiHdr,"gparam6");
-            NORI.gParam7 = getIntVal(gawiHdr,"gparam7");
-            NORI.numBMP = getIntVal(gawiHdr,"numBMP");
-            NORI.gsize = getIntVal(gawiHdr,"gsize");
-            // Get BMP Offsets
-            NORI.bmpOffsets = getIntArrByTag(cfg,"bmpOffset");
-            // Get BMP Specs
-            NORI.bmpSpecs = new int[NORI.numBMP][7];
-            int[] dcount  = getIntArrByTag(cfg,"dcount");
-            int[] dlen    = getIntArrByTag(cfg,"dlen");
-            int[] w       = getIntArrByTag(cfg,"w");
-            int[] h       = getIntArrByTag(cfg,"h");
-            int[] bparam4 = getIntArrByTag(cfg,"bparam4");
-            int[] pos_x   = getIntArrByTag(cfg,"pos_x");
-            int[] pos_y   = getIntArrByTag(cfg,"pos_y");
-            for (int bmp = 0; bmp < NORI.numBMP; bmp++) {
-                NORI.bmpSpecs[bmp][0] = dcount[bmp];
-                NORI.bmpSpecs[bmp][1] = dlen[bmp];
-                NORI.bmpSpecs[bmp][2] = w[bmp];
-                NORI.bmpSpecs[bmp][3] = h[bmp];
-                NORI.bmpSpecs[bmp][4] = bparam4[bmp];
-                NORI.bmpSpecs[bmp][5] = pos_x[bmp];
-                NORI.bmpSpecs[bmp][6] = pos_y[bmp];
-            }
-            // Get Animation Offsets
-            NORI.animOffsets = getIntArrByTag(cfg,"animOffset");
-            // Get Animation Data
-            NORI.animName = getStrArrByTag(cfg,"name");
-            NORI.frames = getIntArrByTag(cfg,"frames");
-            // Prep Frame Data arrays
-            maxNoF = getMax(NORI.frames);
-            NORI.frameOffsets = new int[NORI.anims][maxNoF];
-            NORI.frameData = new int[NORI.anims][maxNoF][2];
-            // Get Frame Data Arrays
-            int[] frameOff = getIntArrByTag(cfg,"frameOffset");
-            int[] delays   = getIntArrByTag(cfg,"delay");
-            int[] planes   = getIntArrByTag(cfg,"planes");
-            // Prep Plane Data arrays
-            maxNoP = getMax(planes);
-            NORI.planeData = new int[NORI.anims][maxNoF][maxNoP][7];
-            // Get Plane Data Arrays
-            bmp_id     = getIntArrByTag(cfg,"bmp_id");
-            point_x    = getIntArrByTag(cfg,"point_x");
-            point_y    = getIntArrByTag(cfg,"point_y");
-            opacity    = getIntArrByTag(cfg,"opacity");
-            flip_axis  = getIntArrByTag(cfg,"flip_axis");
-            blend_mode = getIntArrByTag(cfg,"blend_mode");
-            flag_param = getIntArrByTag(cfg,"flag_param");
-            // Get Frame Data
-            int dex0=0,dex1=0,dex2=0;
-            for (int a = 0; a < NORI.anims; a++) {
-                for (int f = 0; f < NORI.frames[a]; f++) {
-                    NORI.frameOffsets[a][f] = frameOff[dex0++];
-                    NORI.frameData[a][f][0] = delays[dex1++];
-                    NORI.frameData[a][f][1] = planes[dex2++];
-                    // Get Plane Data
-                    getPlaneData(cfg,a,f);
+    // Reads the config in one pass. The tag names are all different, so the
+    // tag says what a value is, and the BMP/ANIM/frame/plane it's inside says
+    // where it goes.
+    private void getConfigData(File config) {
+        XMLInputFactory xif = XMLInputFactory.newInstance();
+        xif.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try (InputStream is = new BufferedInputStream(new FileInputStream(config))) {
+            XMLStreamReader xr = xif.createXMLStreamReader(is);
+            Ints bmpOffsets = new Ints(), animOffsets = new Ints();
+            Ints frames = new Ints(), frameOffs = new Ints(), frameData = new Ints();
+            Ints framePlanes = new Ints(), planeData = new Ints(), animFrameOffs = new Ints();
+            List<int[]> bmpSpecs = new ArrayList<>();
+            List<String> animNames = new ArrayList<>();
+            int[] spec = null;
+            int frame = -1, plane = -1, field;
+            while (xr.hasNext()) {
+                int ev = xr.next();
+                if (ev == XMLStreamConstants.END_ELEMENT) {
+                    // the counts come from what is actually in the config
+                    if (xr.getLocalName().equals("frame"))
+                        frameData.set(frame*2+1, planeData.size()/7 - framePlanes.get(frame));
+                    continue;
+                }
+                if (ev != XMLStreamConstants.START_ELEMENT) continue;
+                String tag = xr.getLocalName();
+                switch (tag) {
+                    // Containers, each one starts a new record
+                    case "NORI": case "NORI_HDR": case "GAWI": case "GAWI_HDR":
+                    case "PAL":
+                        break;
+                    case "BMP":
+                        spec = new int[7];
+                        bmpSpecs.add(spec);
+                        nf.bpos = getOffsetBase(xr);
+                        break;
+                    case "ANIM":
+                        frames.add(0);
+                        animFrameOffs = new Ints();
+                        nf.apos = getOffsetBase(xr);
+                        break;
+                    case "frame":
+                        frame = frameData.size() / 2;
+                        frameData.add(0);
+                        frameData.add(0);
+                        framePlanes.add(planeData.size() / 7);
+                        int k = frames.get(frames.size()-1);
+                        frames.set(frames.size()-1, k+1);
+                        frameOffs.add(k < animFrameOffs.size() ? animFrameOffs.get(k) : 0);
+                        break;
+                    case "plane":
+                        plane = planeData.size() / 7;
+                        for (int i = 0; i < 7; i++) planeData.add(0);
+                        break;
+                    // Values that make up lists
+                    case "bmpOffset":
+                        bmpOffsets.add(getInt(xr));
+                        break;
+                    case "animOffset":
+                        animOffsets.add(getInt(xr));
+                        break;
+                    case "name":
+                        animNames.add(xr.getElementText().trim());
+                        break;
+                    case "frameOffset":
+                        animFrameOffs.add(getInt(xr));
+                        break;
+                    case "delay":
+                        frameData.set(frame*2, getInt(xr));
+                        break;
+                    default:
+                        if ((field = BMP_SPECS.indexOf(tag)) >= 0)
+                            spec[field] = getInt(xr);
+                        else if ((field = PLANE_DATA.indexOf(tag)) >= 0)
+                            planeData.set(plane*7 + field, getInt(xr));
+                        else
+                            setHdrVar(tag, xr);
+                        break;
                 }
             }
+            xr.close();
+            // Get BMP Offsets & Specs
+            nf.bmpOffsets = bmpOffsets.toArray();
+            nf.bmpSpecs = new int[nf.numBMP][];
+            for (int bmp = 0; bmp < nf.numBMP; bmp++) {
+                nf.bmpSpecs[bmp] = bmp < bmpSpecs.size() ? bmpSpecs.get(bmp) : new int[7];
+            }
+            // Get Animation Offsets & Data
+            nf.animOffsets = animOffsets.toArray();
+            nf.animName = animNames.toArray(new String[0]);
+            nf.frames = frames.toArray();
+            // Get Frame & Plane Data, laid out like NORI has them
+            nf.animFrame = firstIndexes(nf.frames);
+            nf.frameOffsets = frameOffs.toArray();
+            nf.frameData = frameData.toArray();
+            nf.framePlane = Arrays.copyOf(framePlanes.toArray(), framePlanes.size() + 1);
+            nf.framePlane[framePlanes.size()] = planeData.size() / 7;
+            nf.planeData = planeData.toArray();
         } catch(Exception ex) {
             out.println("Error in (getConfigData):\n"+ex);
         }
     }
 
-    private static void getPlaneData(Document cfg, int a, int f) {
-        for (int p = 0; p < NORI.frameData[a][f][1]; p++) {
-            NORI.planeData[a][f][p][0] = bmp_id[pdex0++];
-            NORI.planeData[a][f][p][1] = point_x[pdex1++];
-            NORI.planeData[a][f][p][2] = point_y[pdex2++];
-            NORI.planeData[a][f][p][3] = opacity[pdex3++];
-            NORI.planeData[a][f][p][4] = flip_axis[pdex4++];
-            NORI.planeData[a][f][p][5] = blend_mode[pdex5++];
-            NORI.planeData[a][f][p][6] = flag_param[pdex6++];
+    // The fields of a BMP & a plane, in the order they're stored in
+    private static final List<String> BMP_SPECS = Arrays.asList("dcount",
+        "dlen", "w", "h", "bparam4", "pos_x", "pos_y");
+    private static final List<String> PLANE_DATA = Arrays.asList("bmp_id",
+        "point_x", "point_y", "opacity", "flip_axis", "blend_mode", "flag_param");
+
+    // Set the NORI, GAWI, or PAL header var the tag is for (others are skipped)
+    private void setHdrVar(String tag, XMLStreamReader xr) throws XMLStreamException {
+        switch (tag) {
+            // NORI Header Data
+            case "fsig":       nf.fsig = getInt(xr); break;
+            case "noriver":    nf.noriVer = getInt(xr); break;
+            case "nparam1":    nf.nParam1 = getInt(xr); break;
+            case "nparam2":    nf.nParam2 = getInt(xr); break;
+            case "nparam3":    nf.nParam3 = getInt(xr); break;
+            case "nparam4":    nf.nParam4 = getInt(xr); break;
+            case "nparam5":    nf.nParam5 = getInt(xr); break;
+            case "anims":      nf.anims = getInt(xr); break;
+            case "woGawi":     nf.woGawi = getInt(xr); break;
+            case "fsize":      nf.fsize = getInt(xr); break;
+            // GAWI Header Data
+            case "gsig":       nf.gsig = getInt(xr); break;
+            case "gawiver":    nf.gawiVer = getInt(xr); break;
+            case "bpp":        nf.bpp = getInt(xr); break;
+            case "compressed": nf.compressed = getInt(xr); break;
+            case "hasPalette": nf.hasPalette = getInt(xr); break;
+            case "gparam4":    nf.gParam4 = getInt(xr); break;
+            case "gparam5":    nf.gParam5 = getInt(xr); break;
+            case "gparam6":    nf.gParam6 = getInt(xr); break;
+            case "gparam7":    nf.gParam7 = getInt(xr); break;
+            case "numBMP":     nf.numBMP = getInt(xr); break;
+            case "gsize":      nf.gsize = getInt(xr); break;
+            // Palette Data
+            case "psig":       nf.psig = getInt(xr); break;
+            case "palver":     nf.palVer = getInt(xr); break;
+            case "pparam1":    nf.pParam1 = getInt(xr); break;
+            case "pparam2":    nf.pParam2 = getInt(xr); break;
+            case "pparam3":    nf.pParam3 = getInt(xr); break;
+            case "pparam4":    nf.pParam4 = getInt(xr); break;
+            case "divided":    nf.divided = getInt(xr); break;
+            case "psize":      nf.psize = getInt(xr); break;
+            case "mainS":      nf.mainS = getInt(xr); break;
+            case "mainE":      nf.mainE = getInt(xr); break;
+            // Frame Data
+            case "xfb":        nf.xtraFrameBytes = getInt(xr); break;
+            default: break;
         }
     }
 
-    // An anti-duplication + better readability function
-    private static int getMax(int[] array) {
-        int max=0;
+    // The bpos/apos part of an offset="offset+base" attribute
+    private static int getOffsetBase(XMLStreamReader xr) {
+        String offset = xr.getAttributeValue(null, "offset");
+        int plus = (offset == null) ? -1 : offset.indexOf('+');
+        return (plus < 0) ? 0 : toInt(offset.substring(plus + 1).trim());
+    }
 
-        for (int x : array) {
-            if (x > max) {
-                max=x;
-            }
+    // The int in the current element
+    private static int getInt(XMLStreamReader xr) throws XMLStreamException {
+        return toInt(xr.getElementText().trim());
+    }
+
+    // A growable int array, since the config doesn't say how big the lists
+    // are until they've been read
+    private static class Ints {
+        private int[] a = new int[16];
+        private int n = 0;
+
+        void add(int v) {
+            if (n == a.length) a = Arrays.copyOf(a, n * 2);
+            a[n++] = v;
         }
 
-        return max;
-    }
+        int get(int i) {
+            return a[i];
+        }
 
-    // Get single int array (int[]) by tagName
-    private static int[] getIntArrByTag(Document cfg, String tag) {
-        NodeList nl = cfg.getElementsByTagName(tag);
-        int max = nl.getLength();
-        int[] tmp = new int[max];
-        for (int i = 0; i < max; i++) {
-            Node n = nl.item(i);
-            tmp[i] = toInt((n.getTextContent()).trim());
+        void set(int i, int v) {
+            a[i] = v;
         }
-        return tmp;
-    }
 
-    // Get single string array (String[]) by tagName
-    private static String[] getStrArrByTag(Document cfg, String tag) {
-        NodeList nl = cfg.getElementsByTagName(tag);
-        int max = nl.getLength();
-        String[] tmp = new String[max];
-        for (int i = 0; i < max; i++) {
-            Node n = nl.item(i);
-            tmp[i] = (n.getTextContent()).trim();
+        int size() {
+            return n;
         }
-        return tmp;
-    }
 
-    // An anti-duplication + better readability function
-    private static Element getElementByTagName(Document cfg, String tagName) {
-        Node node0 = cfg.getElementsByTagName(tagName).item(0);
-        return (Element) node0;
+        int[] toArray() {
+            return Arrays.copyOf(a, n);
+        }
     }
 
-    // An anti-duplication + better readability function
-    private static int getIntVal(Element parentE, String tagName) {
-        Node node0 = parentE.getElementsByTagName(tagName).item(0);
-        return toInt((node0.getTextContent()).trim());
+    // Turns a list of counts into where each one starts in a flat array,
+    // with the total at the end (the counts: 2,3,1 -> 0,2,5,6)
+    private static int[] firstIndexes(int[] counts) {
+        int[] first = new int[counts.length + 1];
+        for (int i = 0; i < counts.length; i++) {
+            first[i + 1] = first[i] + counts[i];
+        }
+        return first;
     }
 
     // Shorthand function to wrap a byte array in a little-endian bytebuffer
@@ -436,7 +709,7 @@ public class Create {
     }
 
     // An anti-duplication + better readability function
-    private static byte[] file2BA(String fStr) {
+    private byte[] file2BA(String fStr) {
         try {
             fba = Files.readAllBytes((new File(fStr)).toPath());
         } catch(Exception ex) {
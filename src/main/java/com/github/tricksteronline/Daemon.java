@@ -0,0 +1,176 @@
+package com.github.tricksteronline;/*
+Daemon.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.security.*;
+import static java.lang.System.out;
+/**
+Class Description:
+Keeps one TNT running in the background (mode d), so the tools that call it
+thousands of times don't pay for starting a JVM & loading the xml classes every
+time. Jobs come in from the Client, and get the same output a normal run would.
+
+Dev Notes:
+It only listens on the loopback address, but every user on the machine can
+reach that, & a job reads & writes files as the user the daemon runs as. So
+each start makes a random token, readable only by that user, in
+~/.tnt/daemon-PORT.token (the folder is 0700, the file 0600, where the file
+system has POSIX permissions; elsewhere the home folder is what keeps it
+private). A request is the token on the first line, then one line of tab
+separated args (the same ones the command line takes), & everything the job
+prints is sent back down the socket until it's done, then the socket is
+closed. A wrong token gets an error & nothing is run. "--stop" as the only
+arg shuts the daemon down, & the token file is deleted.
+Jobs are run one at a time, since the options are all static in Main & the
+output goes through System.out. Each job can still use --threads etc, and
+every option is put back to its default before the next one. What carries
+over is what makes it fast: the JIT'd code, the thread local buffers, the
+--bmp-threads pool, & the cache of analyzed files, which is kept in memory
+unless the daemon was started with --cache.
+
+Development Priority: LOW
+*/
+public class Daemon {
+    // class variables
+    public static final int PORT = 7416;
+    public static final String STOP = "--stop";
+    // ~/TOKEN_DIR/daemon-PORT.token, the Client has its own copy of the path
+    public static final String TOKEN_DIR = ".tnt";
+    // how long a connection gets to send its request
+    public static final int TIMEOUT = 10000;
+    public static boolean running = false;
+    // the cache every job without its own --cache uses
+    public static Cache cache = null;
+    public int jobs=0;
+    private byte[] token;
+
+    // constructor for Daemon class, serves jobs until it's told to stop
+    public Daemon(int port, Cache jobCache) {
+        cache = jobCache;
+        Path tokenFile = null;
+        try (ServerSocket ss = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            // Only after the port is ours, so a second daemon can't replace
+            // the token of the one that is running
+            tokenFile = tokenFile(ss.getLocalPort());
+            token = newToken(tokenFile);
+            running = true;
+            out.println("TNT daemon listening on " + ss.getLocalSocketAddress());
+            out.println("Token in " + tokenFile);
+            while (running) {
+                try (Socket s = ss.accept()) {
+                    job(s);
+                } catch(IOException ex) {
+                    out.println("Error in (DAEMON):\n"+ex);
+                }
+            }
+            out.println("TNT daemon stopped after " + jobs + " jobs");
+        } catch(IOException ex) {
+            out.println("Error in (DAEMON):\n"+ex);
+        } finally {
+            running = false;
+            cache = null;
+            if (tokenFile != null) {
+                try {
+                    Files.deleteIfExists(tokenFile);
+                } catch(IOException ex) {
+                    out.println("Error in (DAEMON):\n"+ex);
+                }
+            }
+        }
+    }
+
+    // Where the token for port goes
+    static Path tokenFile(int port) {
+        return Paths.get(System.getProperty("user.home"), TOKEN_DIR, "daemon-" + port + ".token");
+    }
+
+    // Reads one job, runs it with its output going back to the client
+    private void job(Socket s) throws IOException {
+        // Jobs are one at a time, so one that never sends anything can't be
+        // left to hold up the rest
+        s.setSoTimeout(TIMEOUT);
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+        PrintStream ps = new PrintStream(new BufferedOutputStream(s.getOutputStream()),
+            false, "UTF-8");
+        String sent = in.readLine();
+        if (sent == null || !MessageDigest.isEqual(token, sent.getBytes(StandardCharsets.UTF_8))) {
+            ps.println("Error: Bad daemon token");
+            ps.flush();
+            out.println("Rejected a job with a bad token from " + s.getRemoteSocketAddress());
+            return;
+        }
+        String line = in.readLine();
+        if (line == null) return;
+        String[] args = line.isEmpty() ? new String[0] : line.split("\t", -1);
+        PrintStream log = System.out;
+        if (args.length == 1 && args[0].equals(STOP)) {
+            ps.println("TNT daemon stopping");
+            ps.flush();
+            running = false;
+            return;
+        }
+        long start = System.nanoTime();
+        Main.resetOptions();
+        System.setOut(ps);
+        try {
+            Main.run(args);
+        } catch(Exception ex) {
+            // A bad job mustn't take the daemon down with it
+            out.println("Error in (DAEMON):\n"+ex);
+        } finally {
+            System.setOut(log);
+            Main.resetOptions();
+            ps.flush();
+        }
+        jobs++;
+        out.printf("Job %d: %s, %.3fs%n", jobs, String.join(" ", args),
+            (System.nanoTime() - start) / 1e9);
+    }
+
+    // Makes a new random token & writes it where only this user can read it
+    private static byte[] newToken(Path file) throws IOException {
+        byte[] rnd = new byte[32];
+        new SecureRandom().nextBytes(rnd);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : rnd) sb.append(String.format("%02x", b));
+        byte[] hex = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        Path dir = file.getParent();
+        Path tmp = dir.resolve(file.getFileName() + ".tmp");
+        Files.createDirectories(dir);
+        Files.deleteIfExists(tmp);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            // Set even if it was already there, it may have been made wider
+            Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwx------"));
+            Files.createFile(tmp, PosixFilePermissions.asFileAttribute(
+                PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(tmp);
+            File f = tmp.toFile();
+            f.setReadable(false, false);
+            f.setReadable(true, true);
+            f.setWritable(false, false);
+            f.setWritable(true, true);
+        }
+        Files.write(tmp, hex);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        return hex;
+    }
+}
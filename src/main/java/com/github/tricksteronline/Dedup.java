@@ -0,0 +1,200 @@
+package com.github.tricksteronline;/*
+Dedup.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import static java.lang.System.out;
+/**
+Class Description:
+A content-addressed store for extracted BMP (--dedup). Lots of NORI files have
+the same images in them, so each different BMP is only written once, into the
+store, and every place it gets extracted to is a hard link to that copy.
+
+Dev Notes:
+A BMP is named by the SHA-256 of its bytes, hashed from the header & pixel
+buffers JBL already has, before anything is written: store/ab/abcd....bmp.
+Writing into one of the links would change the stored copy & every other link
+to it too, so TNT never does: a BMP that is a link gets replaced instead (see
+unshare). The files aren't made read-only, since that is shared by the links
+as well, and would stop anything from overwriting the extracted BMP later. A
+BMP edited in place by another program does change every copy though.
+Where a hard link can't be made (another drive, or a file system without
+them), the BMP isn't written at all, and its name & hash go in the .tnt-refs
+file of its folder instead. Those are kept in memory & written whole by
+finish(), so a rerun replaces its lines instead of adding them again.
+
+Development Priority: LOW
+*/
+public class Dedup {
+    // class variables
+    public static final String REFS = ".tnt-refs";
+    public Path dir;
+    public AtomicLong unique = new AtomicLong(), dupes = new AtomicLong();
+    public AtomicLong stored = new AtomicLong(), saved = new AtomicLong();
+    // off where links are known not to work (& for the tests)
+    boolean hardLinks = true;
+    // folder -> what goes in its .tnt-refs (BMP name -> hash)
+    private Map<Path, Map<String, String>> refs = new ConcurrentHashMap<>();
+    // a lock for each hash seen, held while checking for & storing it
+    private Map<String, Object> claims = new ConcurrentHashMap<>();
+    private static ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch(Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    });
+
+    // constructor for Dedup class
+    public Dedup(File storeDir) {
+        dir = storeDir.toPath();
+    }
+
+    // Puts the BMP made of parts at path, as a link to its one stored copy
+    public void write(Path path, ByteBuffer... parts) throws IOException {
+        MessageDigest md = digests.get();
+        md.reset();
+        long size = 0;
+        for (ByteBuffer p : parts) {
+            size += p.remaining();
+            md.update(p.duplicate());
+        }
+        String hash = hex(md.digest());
+        Path obj = dir.resolve(hash.substring(0, 2)).resolve(hash + ".bmp");
+        // Only one thread gets to store a new BMP, the rest wait for it to be
+        // done & count as duplicates
+        boolean isNew;
+        synchronized (claims.computeIfAbsent(hash, k -> new Object())) {
+            isNew = !Files.exists(obj);
+            if (isNew) store(obj, parts);
+        }
+        if (isNew) {
+            unique.incrementAndGet();
+            stored.addAndGet(size);
+        } else {
+            dupes.incrementAndGet();
+            saved.addAndGet(size);
+        }
+        link(path, obj, hash);
+    }
+
+    // Writes out the .tnt-refs of every folder this run used. One left with
+    // nothing in it is deleted.
+    public void finish() {
+        for (Map.Entry<Path, Map<String, String>> e : refs.entrySet()) {
+            Path file = e.getKey().resolve(REFS);
+            try {
+                Map<String, String> names = e.getValue();
+                if (names.isEmpty()) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                StringBuilder sb = new StringBuilder();
+                synchronized (names) {
+                    for (Map.Entry<String, String> n : names.entrySet()) {
+                        sb.append(n.getKey()).append('\t').append(n.getValue()).append('\n');
+                    }
+                }
+                Path tmp = file.resolveSibling(REFS + ".tmp");
+                Files.write(tmp, sb.toString().getBytes(StandardCharsets.UTF_8));
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            } catch(IOException ex) {
+                out.println("Error in (DEDUP):\n"+ex);
+            }
+        }
+        refs.clear();
+    }
+
+    // A BMP that is a link into the store is deleted, so what gets written
+    // there next is a file of its own, not a change to every copy of it
+    public static void unshare(Path path) throws IOException {
+        try {
+            if ((Integer) Files.getAttribute(path, "unix:nlink") > 1) Files.delete(path);
+        } catch(NoSuchFileException | UnsupportedOperationException | IllegalArgumentException ex) {
+            // nothing there yet, or no link counts on this system
+        }
+    }
+
+    // Prints how much the store saved
+    public void summary() {
+        out.println("Dedup: " + unique + " unique BMP (" + stored + " bytes), "
+            + dupes + " duplicates linked (" + saved + " bytes saved)");
+    }
+
+    // Writes a new BMP to the store, through a temp file so a crash (or
+    // another TNT using the same store) never leaves a half written one
+    private void store(Path obj, ByteBuffer[] parts) throws IOException {
+        Files.createDirectories(obj.getParent());
+        Path tmp = obj.resolveSibling(obj.getFileName() + "." + Thread.currentThread().getId());
+        try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer last = parts[parts.length - 1];
+            while (last.hasRemaining()) fc.write(parts);
+        }
+        try {
+            Files.move(tmp, obj, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch(AtomicMoveNotSupportedException ex) {
+            Files.move(tmp, obj, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Replaces whatever is at path with a link to obj, or a reference to it
+    private void link(Path path, Path obj, String hash) throws IOException {
+        Files.deleteIfExists(path);
+        Map<String, String> names = refs.computeIfAbsent(
+            path.toAbsolutePath().getParent(), Dedup::loadRefs);
+        String name = path.getFileName().toString();
+        if (hardLinks) {
+            try {
+                Files.createLink(path, obj);
+                names.remove(name);
+                return;
+            } catch(IOException | UnsupportedOperationException ex) {
+                // another drive, or a file system without hard links
+            }
+        }
+        names.put(name, hash);
+    }
+
+    // What a folder's .tnt-refs already has, from an earlier run
+    private static Map<String, String> loadRefs(Path folder) {
+        Map<String, String> names = Collections.synchronizedMap(new TreeMap<>());
+        Path file = folder.resolve(REFS);
+        if (!Files.isRegularFile(file)) return names;
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] f = line.split("\t");
+                if (f.length == 2) names.put(f[0], f[1]);
+            }
+        } catch(IOException ex) {
+            out.println("Error in (DEDUP):\n"+ex);
+        }
+        return names;
+    }
+
+    private static String hex(byte[] d) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : d) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}
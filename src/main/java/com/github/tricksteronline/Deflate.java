@@ -0,0 +1,105 @@
+package com.github.tricksteronline;/*
+Deflate.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.zip.*;
+import static java.lang.System.out;
+/**
+Class Description:
+The Deflate class does the reverse of Inflate: it wraps a NORI file in the
+zlib layout of the compressed .bac files. See the NORI Format Specification
+for the layout of the wrapper.
+
+Dev Notes:
+The NORI file is read & deflated a chunk at a time, straight from one file to
+the other, so the whole thing is never in memory. The 'Data size' is only
+known at the end, so the 12 byte wrapper header is written last.
+Level is 0-9 (or -1 for the zlib default), strategy is default, filtered, or
+huffman, the same as the Deflater constants.
+
+Development Priority: MEDIUM
+*/
+public class Deflate {
+    // class variables
+    public static int chunk = 65536;
+    public static int level = Deflater.DEFAULT_COMPRESSION;
+    public static int strategy = Deflater.DEFAULT_STRATEGY;
+
+    // constructor for Deflate class
+    public Deflate() {}
+
+    // Sets the strategy by name, returns false if it isn't one
+    public static boolean setStrategy(String name) {
+        switch (name) {
+            case "default":
+                strategy = Deflater.DEFAULT_STRATEGY;
+                return true;
+            case "filtered":
+                strategy = Deflater.FILTERED;
+                return true;
+            case "huffman":
+                strategy = Deflater.HUFFMAN_ONLY;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Deflate the NORI file into a wrapped one, then report how it went
+    public static void wrap(File nori, File wrapped) throws IOException {
+        long start = System.nanoTime();
+        long actual = nori.length(), data = 0;
+        Deflater dfl = new Deflater(level);
+        dfl.setStrategy(strategy);
+        byte[] in = new byte[chunk], buf = new byte[chunk];
+        out.println("Deflating...");
+        try (InputStream is = new FileInputStream(nori);
+             FileChannel fc = FileChannel.open(wrapped.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Leave room for the wrapper header
+            fc.position(12);
+            int len;
+            while ((len = is.read(in)) > 0) {
+                dfl.setInput(in, 0, len);
+                while (!dfl.needsInput()) data += drain(dfl, fc, buf);
+            }
+            dfl.finish();
+            while (!dfl.finished()) data += drain(dfl, fc, buf);
+            // Fake header, Actual size, Data size (includes the zlib header)
+            ByteBuffer hdr = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            hdr.putInt(0xB0A0).putInt((int) actual).putInt((int) data);
+            ((Buffer) hdr).flip();
+            while (hdr.hasRemaining()) fc.write(hdr, hdr.position());
+        } finally {
+            dfl.end();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        double ratio = (actual == 0) ? 0 : 100.0 * (data + 12) / actual;
+        out.println(String.format("Deflated %d -> %d bytes (%.1f%%) at %.1f MB/s",
+            actual, data + 12, ratio, actual / 1e6 / Math.max(secs, 1e-9)));
+    }
+
+    // Write out whatever the Deflater has ready, returns how much that was
+    private static int drain(Deflater dfl, FileChannel fc, byte[] buf) throws IOException {
+        int len = dfl.deflate(buf);
+        ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+        while (bb.hasRemaining()) fc.write(bb);
+        return len;
+    }
+}
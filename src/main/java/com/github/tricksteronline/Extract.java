@@ -18,6 +18,8 @@ import com.github.tricksteronline.NORI;
 import java.io.*;
 import java.nio.*;
 import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
 import static java.lang.System.out;
 /**
 Class Description:
@@ -34,127 +36,241 @@ Development Priority: HIGHEST
 public class Extract
 {
     // class variables
-    public static int pos=0,dlen=0,w=0,h=0,nlen=0,dcount=0,bmpNxt=0;
-    public static boolean compressed=false, dcBool=false;
+    public int pos=0,nlen=0,bmpNxt=0;
+    public boolean compressed=false;
     public static byte x00=(byte)0,xFF=(byte)255,x1F=(byte)31,x7C=(byte)124;
+    // shared pool for decoding the bitmaps of a file in parallel (null = off)
+    public static ForkJoinPool bmpPool = null;
+    // only make the BMP that changed since the last run (see Manifest)
+    public static boolean incremental = false;
+
+    // the NORI file being extracted & its own bitmap library state
+    private NORI nf;
+    private JBL jbl;
+    private boolean subs;
+    private Manifest mf;
 
     // constructor for Extract class
-    public Extract(byte[] ba, boolean subs) {
+    public Extract(NORI nori, ByteBuffer bb, boolean subsets) {
+        nf = nori;
+        subs = subsets;
         try {
-            ByteBuffer bb = mkLEBB(ba);
-            // Analyze and assign class vars
-            Analyzer a = new Analyzer(bb);
-            compressed = Analyzer.compressed;
+            // Analyze and assign class vars, unless the cache already did
+            if (nf.analyzed) bb.position(nf.bpos);
+            else new Analyzer(bb, nf);
+            compressed = (nf.compressed == 1);
 
             // Make the directory where we will extract the bmp to
-            File d = new File(NORI.exdir);
+            File d = new File(nf.exdir);
             Files.createDirectories(d.toPath());
 
             // Initialize Java Bitmap Library
-            JBL.setFileVars(NORI.exdir, NORI.name);
-            JBL.set16BitFmtIn("RGB555");
-            nlen = JBL.setImgSetSize(NORI.numBMP);
-            JBL.setPalette(NORI.palette);
+            jbl = newJBL();
+            if (incremental) {
+                mf = new Manifest(nf, subs);
+                mf.setBase(baseHash());
+            }
 
             // Extract the images
             out.println("Extracting Bitmaps...");
-            for (int i = 0; i < NORI.numBMP; i++) {
-                if (NORI.bmpOffsets[i+1] != 0)
-                    bmpNxt= NORI.bmpOffsets[i + 1] + NORI.bpos;
-                else
-                    bmpNxt= NORI.bmpOffsets[i + 1];
-                // get data count (if larger than 1, subset exists)
-                dcount = bb.getInt();
-                dcBool = (dcount >1);
-                for (int x=1; x <= dcount; x++) {
-                    // get/set the standard info about the bmp
-                    setBitmapData(bb);
-                    JBL.setBmpVars(w,h, NORI.bpp);
-                    // Next 4 lines: get img data, prep pixel data, & prep BMP
-                    byte[] rawBytes = JBL.getImgBytes(bb,dlen);
-                    byte[] bytes = decompressor(rawBytes);
-                    byte[] pixels = JBL.toStdRGB(bytes);
-                    // Ntree* uses top-down bmp scanlines in the NORI format
-                    byte[] bmp = JBL.setBMP(JBL.reverseRows(pixels),false);
-                    // Write the new BMP into existence
-                    if (dcBool && subs)
-                        JBL.makeBMP(bmp,i+1,String.format("_%02d",x));
+            if (bmpPool != null && nf.numBMP > 1) {
+                // Analyzer found where every bitmap starts, so each one can be
+                // decoded on its own from a separate view of the buffer
+                bmpPool.invoke(new DecodeRange(bb, 0, nf.numBMP));
+            } else {
+                for (int i = 0; i < nf.numBMP; i++) {
+                    if (nf.bmpOffsets[i+1] != 0)
+                        bmpNxt= nf.bmpOffsets[i + 1] + nf.bpos;
                     else
-                        JBL.makeBMP(bmp,i+1,"");
+                        bmpNxt= nf.bmpOffsets[i + 1];
+                    extractBmp(bb, jbl, i);
+                    pos = bb.position();
+                    // Ensure the buffer is in the right position for the next bmp
+                    if (pos != bmpNxt && bmpNxt != 0) bb.position(bmpNxt);
                 }
-                pos = bb.position();
-                // Ensure the buffer is in the right position for the next bmp
-                if (pos != bmpNxt && bmpNxt != 0) bb.position(bmpNxt);
+            }
+            if (mf != null) {
+                mf.save();
+                out.println("Up to date, skipped: "+ mf.skipped +" of "+ nf.numBMP);
             }
             out.println("Extraction Complete.\n");
         }
         catch(Exception ex) {
             out.println("Error in (EM):\n"+ex);
+            // Let the caller know this file failed, so it can move on
+            throw new IllegalStateException(nf.name, ex);
+        }
+    }
+
+    // Makes a Java Bitmap Library object set up for this NORI file
+    private JBL newJBL() {
+        JBL lib = new JBL();
+        lib.setFileVars(nf.exdir, nf.name);
+        lib.set16BitFmtIn("RGB555");
+        nlen = lib.setImgSetSize(nf.numBMP);
+        if (nf.pal24 != null) lib.setPalette(nf.pal24);
+        return lib;
+    }
+
+    // Extract the image(s) of one BitmapData, starting at the bb position
+    private void extractBmp(ByteBuffer bb, JBL lib, int i) {
+        // get data count (if larger than 1, subset exists)
+        int dcount = bb.getInt();
+        boolean dcBool = (dcount >1);
+        long hash = 0;
+        if (mf != null) {
+            // Nothing to do if the BMP from the last run are still good
+            int start = bb.position();
+            hash = bmpHash(bb, lib, dcount);
+            if (mf.upToDate(i, hash, nf.exdir)) return;
+            bb.position(start);
+        }
+        for (int x=1; x <= dcount; x++) {
+            // get/set the standard info about the bmp: dlen, w, h
+            int[] bd = getBitmapData(bb);
+            lib.setBmpVars(bd[1],bd[2], nf.bpp);
+            // Next 3 lines: get img data, prep pixels, & convert them into it
+            byte[] rawBytes = lib.viewImgBytes(bb,bd[0]);
+            ByteBuffer px = lib.newPixels();
+            decompressor(rawBytes, lib.imgPos, lib.dataSize, px, lib);
+            // Write the new BMP into existence
+            String suffix = (dcBool && subs) ? String.format("_%02d",x) : "";
+            lib.makeBMP(px,i+1,suffix);
+            if (mf != null) {
+                String bmpName = lib.setPath(i+1,suffix).getFileName().toString();
+                mf.add(i, hash, bmpName, 54 + px.limit());
+            }
+        }
+    }
+
+    // Hash of the specs & data of every subset of a bitmap, which is all its
+    // BMP are made from. Leaves bb after the last subset, like extractBmp().
+    private long bmpHash(ByteBuffer bb, JBL lib, int dcount) {
+        CRC32 crc = new CRC32();
+        Adler32 adler = new Adler32();
+        for (int x=1; x <= dcount; x++) {
+            int[] bd = getBitmapData(bb);
+            lib.setBmpVars(bd[1],bd[2], nf.bpp);
+            byte[] rawBytes = lib.viewImgBytes(bb,bd[0]);
+            for (int v : bd) {
+                crc.update(JBL.int2ba(v));
+                adler.update(JBL.int2ba(v));
+            }
+            crc.update(rawBytes, lib.imgPos, lib.dataSize);
+            adler.update(rawBytes, lib.imgPos, lib.dataSize);
+        }
+        return (crc.getValue() << 32) | adler.getValue();
+    }
+
+    // Hash of what every bitmap of the file depends on besides its own data
+    private long baseHash() {
+        CRC32 crc = new CRC32();
+        for (int v : new int[]{nf.bpp, nf.compressed, nlen, subs ? 1 : 0})
+            crc.update(JBL.int2ba(v));
+        if (nf.pal24 != null) {
+            for (int v : nf.pal24) crc.update(JBL.int2ba(v));
         }
+        return crc.getValue();
     }
 
-    // Assign the BitmapData header info
-    private static void setBitmapData(ByteBuffer bb) {
-        // assign: data length, width, height; then temporarily assign unknowns
-        dlen = bb.getInt();
-        w = bb.getInt();
-        h = bb.getInt();
+    // Fork/join task that splits a range of bitmaps in half until a single
+    // bitmap is left, which is then decoded with its own buffer view & JBL
+    private class DecodeRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final ByteBuffer bb;
+        private final int lo, hi;
+
+        DecodeRange(ByteBuffer buffer, int start, int end) {
+            bb = buffer;
+            lo = start;
+            hi = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                ByteBuffer view = bb.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                view.position(nf.bmpOffsets[lo] + nf.bpos);
+                extractBmp(view, newJBL(), lo);
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new DecodeRange(bb, lo, mid), new DecodeRange(bb, mid, hi));
+            }
+        }
+    }
+
+    // Get the BitmapData header info: data length, width, height
+    private static int[] getBitmapData(ByteBuffer bb) {
+        int dlen = bb.getInt();
+        int w = bb.getInt();
+        int h = bb.getInt();
+        // temporarily assign unknowns
         int bParam4 = bb.getInt();
         int pos_x = bb.getInt();
         int pos_y = bb.getInt();
+        return new int[]{dlen, w, h};
     }
 
-    // Minor interface for decompress() to make code cleaner
-    private static byte[] decompressor(byte[] rawBytes) {
-        if (compressed)
-            return decompress(rawBytes);
-        else
-            return rawBytes;
+    // Minor interface for decompress() to make code cleaner. Either way, the
+    // pixels go right into the px buffer, JBL takes care of the format, the
+    // padding, and the flip from Ntree*'s top-down scanlines to bottom-up ones
+    private void decompressor(byte[] rawBytes, int start, int len, ByteBuffer px, JBL lib) {
+        if (compressed) {
+            decompress(rawBytes, start, len, px, lib);
+        } else {
+            if (len < lib.pixels * lib.Bpp)
+                throw new IllegalStateException("BMP data is smaller than w*h");
+            lib.putPixels(rawBytes, start, px, 0, lib.pixels);
+        }
     }
 
     // Custom Run-length Encoding Decompression function.
     // Each scanline is defined by a encodedSize, then a cycle of background and
     // foreground pixel data that is repeated until the encodedSize is met.
-    private static byte[] decompress(byte[] input) {
+    // Works right on the input array; every run is checked against the size of
+    // the bitmap & the data, so a corrupt file fails here with a clear reason.
+    static void decompress(byte[] input, int start, int len, ByteBuffer px, JBL lib) {
         // Initialize vars: encodedSize, bg pixels, fg pixels, Bytes/px, fg*Bpp
-        int encodedSize, bg, fg, Bpp = (NORI.bpp /8), fgxBpp;
-        byte[] output = new byte[w*h*Bpp], bg1= {x1F,x7C}, bg2= {xFF,x00,xFF};
-        // Create bytebuffers for the input and output arrays
-        ByteBuffer bi = mkLEBB(input), bo = mkLEBB(output);
+        int encodedSize, bg, fg, Bpp = lib.Bpp, fgxBpp;
+        int p = 0, pos = start, end = start + len;
+        byte[] bg1= {x1F,x7C}, bg2= {xFF,x00,xFF}, bg0= {x00,x00,x00};
+        byte[] bgPx = (Bpp == 2) ? bg1 : (Bpp == 3) ? bg2 : bg0;
 
-        for (int i=0; i < h; i++) {
+        for (int i=0; i < lib.h; i++) {
             // set the encodedSize, then subtract 2, since it includes itself
-            encodedSize = (int)bi.getShort()-2;
+            if (pos + 2 > end) throw rleError(i, "data ends before scanline");
+            encodedSize = getShort(input, pos) - 2;
+            pos += 2;
+            if (pos + encodedSize > end) throw rleError(i, "encodedSize too big");
             while(encodedSize > 0) {
                 // Get the encoded scanline internal parameters
-                bg = bi.getShort();
-                fg = bi.getShort();
+                bg = getShort(input, pos);
+                fg = getShort(input, pos + 2);
+                pos += 4;
                 fgxBpp = fg * Bpp;
-                // Get foreground pixel data for the scanline
-                byte[] fgData = new byte[fgxBpp];
-                bi.get(fgData,0, fgxBpp);
+                if (bg < 0 || fg < 0 || p + bg + fg > lib.pixels)
+                    throw rleError(i, "run goes past w*h");
+                if (pos + fgxBpp > end) throw rleError(i, "run goes past dlen");
                 // Set background pixels for scanline
-                for (int x = 0; x < bg; x++) {
-                    if (Bpp == 2)
-                        bo.put(bg1,0,2);
-                    else if (Bpp == 3)
-                        bo.put(bg2,0,3);
-                    else
-                        bo.put(x00);
-                }
+                p = lib.fillPixels(bgPx, 0, px, p, bg);
                 // Set foreground pixels for scanline
-                for (int y=0; y < fgxBpp; y++) {
-                    bo.put(fgData[y]);
-                }
+                p = lib.putPixels(input, pos, px, p, fg);
+                pos += fgxBpp;
                 // Subtract the bytes for the fg & bg vars, and fgData
                 encodedSize -= 4+fgxBpp;
             }
         }
-        return output;
+        // Anything the encoding didn't cover is left as blank (zero) pixels
+        if (p < lib.pixels) lib.fillPixels(bg0, 0, px, p, lib.pixels - p);
+    }
+
+    // Read a little-endian (signed) short from a byte array
+    private static int getShort(byte[] ba, int i) {
+        return (short)((ba[i] & 0xFF) | (ba[i + 1] << 8));
     }
 
-    // Shorthand function to wrap a byte array in a little-endian bytebuffer
-    private static ByteBuffer mkLEBB(byte[] ba) {
-        return ByteBuffer.wrap(ba).order(ByteOrder.LITTLE_ENDIAN);
+    // Makes the exception for corrupt RLE data
+    private static IllegalStateException rleError(int line, String why) {
+        return new IllegalStateException("Bad RLE data at scanline "+line+": "+why);
     }
 }
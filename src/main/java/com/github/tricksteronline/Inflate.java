@@ -0,0 +1,124 @@
+package com.github.tricksteronline;/*
+Inflate.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.nio.*;
+import java.util.*;
+import java.util.zip.*;
+import static java.lang.System.out;
+/**
+Class Description:
+The Inflate class undoes the zlib compression some NORI files (mostly .bac
+files from the Taiwan client) are wrapped in. See the NORI Format Specification
+for the layout of the wrapper.
+
+Dev Notes:
+The zlib stream is inflated a chunk at a time until the Inflater says it has
+finished, since one inflate() call isn't promised to do the whole thing, and
+the 'Actual size' in the wrapper is only trusted as a first guess for the
+output size, and only up to MAX_RATIO times the compressed size, so a bad
+header can't make it allocate gigabytes up front. Every thread keeps one
+Inflater and one input chunk array and reuses them for each file it works on,
+instead of making & ending new ones.
+
+Development Priority: MEDIUM
+*/
+public class Inflate {
+    // class variables
+    public static int chunk = 65536;
+    // most the first output guess can be, in multiples of the compressed size
+    public static final int MAX_RATIO = 16;
+    private static ThreadLocal<Inflater> inflaters =
+        ThreadLocal.withInitial(Inflater::new);
+    private static ThreadLocal<byte[]> chunks =
+        ThreadLocal.withInitial(() -> new byte[chunk]);
+
+    // constructor for Inflate class
+    public Inflate() {}
+
+    // Checks the zlib wrapper: no NORI signature and a zlib header at 12.
+    // Any valid header counts (deflate, a window of 32K or less, & the check
+    // bits right), since the FLG byte changes with the compression level.
+    public static boolean isWrapped(ByteBuffer bb) {
+        if (bb.capacity() < 14) return false;
+        int cmf = bb.get(12) & 0xFF, flg = bb.get(13) & 0xFF;
+        return bb.getInt(0) != 1230131022 && (cmf & 0x0F) == 8 &&
+            (cmf >> 4) <= 7 && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    // Inflate the zlib stream in a wrapped file, returns a little-endian
+    // bytebuffer of the NORI data inside
+    public static ByteBuffer inflate(ByteBuffer bb) throws DataFormatException {
+        ByteBuffer src = bb.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int decompsz = src.getInt(4), cmpdatasz = src.getInt(8);
+        // Don't read past the end if the Data size is wrong
+        if (cmpdatasz < 0 || cmpdatasz > bb.capacity() - 12) {
+            out.println("Warning: Bad Data size " + cmpdatasz + ", using the rest of the file");
+            cmpdatasz = bb.capacity() - 12;
+        }
+        if (decompsz < 0)
+            out.println("Warning: Bad Actual size " + decompsz + ", ignored");
+        // Inflater class expects the zlib header to be included unless
+        // initialized to Inflater(true) instead of Inflater()
+        Inflater dcmp = inflaters.get();
+        dcmp.reset();
+        long guess = Math.min(decompsz, (long) cmpdatasz * MAX_RATIO);
+        byte[] output = new byte[(int) Math.max(guess, chunk)];
+        int done = 0;
+        try {
+            // Heap input can be fed all at once, mapped input a chunk at a time
+            src.position(12).limit(12 + cmpdatasz);
+            boolean fed = false;
+            if (src.hasArray()) {
+                dcmp.setInput(src.array(), src.arrayOffset() + 12, cmpdatasz);
+                src.position(src.limit());
+                fed = true;
+            }
+            while (!dcmp.finished()) {
+                if (dcmp.needsInput()) {
+                    if (!src.hasRemaining()) {
+                        if (fed) break;
+                        throw new DataFormatException("Unexpected end of data");
+                    }
+                    byte[] in = chunks.get();
+                    int len = Math.min(in.length, src.remaining());
+                    src.get(in, 0, len);
+                    dcmp.setInput(in, 0, len);
+                    continue;
+                }
+                if (dcmp.needsDictionary())
+                    throw new DataFormatException("Preset dictionary needed");
+                // Grow the output if the header under-reported the size
+                if (done == output.length) {
+                    if (output.length > Integer.MAX_VALUE / 2)
+                        throw new DataFormatException("Inflated data over 1GB");
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                done += dcmp.inflate(output, done, output.length - done);
+            }
+            if (!dcmp.finished())
+                throw new DataFormatException("Truncated zlib stream");
+        } finally {
+            // Drop the reference to the input array, the Inflater is kept
+            dcmp.reset();
+        }
+        if (decompsz == done) {
+            out.println("Decompression successful!");
+        } else {
+            out.println("Warning: Actual size is " + done + ", not " + decompsz);
+        }
+        if (done != output.length) output = Arrays.copyOf(output, done);
+        return ByteBuffer.wrap(output).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -17,6 +17,7 @@ GNU General Public License for more details.
 */
 import java.io.*;
 import java.nio.*;
+import java.nio.channels.*;
 import java.nio.file.*;
 import static java.lang.System.out;
 /**
@@ -27,6 +28,8 @@ normal bitmap creation too, since Java lacks proper byte support for bitmaps.
 
 Dev Notes:
 Works exclusively with bytes and byte arrays: no numbers, objects, or generics.
+Each JBL object keeps its own bitmap settings, so make one per file (or thread)
+if more than one set of bitmaps is being worked on at the same time.
 No dealing with the RGB like its a short int. We do things the byte way.
 All data is little-endian format. Don't think too hard about the actual code.
 It is a huge headache to understand these bit formats.
@@ -35,11 +38,32 @@ Version: 1.0.0
 */
 public class JBL {
     // class variables
-    public static int bpp=0,Bpp=0,w=0,h=0,dataSize=0,bppOut=0,pixels=0,nLen=0;
-    public static String name, dir, bitFmtIn, bitFmtOut, RGB24="RGB24";
+    public static String RGB24="RGB24";
     public static String RGB555="RGB555",RGB565="RGB565",ARGB16="ARGB16";
-    public static byte[][] palette = new byte[256][3];
-    public static boolean bitFmtOutSet=false;
+    public int bpp=0,Bpp=0,w=0,h=0,dataSize=0,bppOut=0,pixels=0,nLen=0;
+    public int scanline=0,imgPos=0;
+    public String name, dir, bitFmtIn, bitFmtOut;
+    public byte[][] palette = new byte[256][3];
+    // the palette packed as 256 24-bit colors (b | g << 8 | r << 16)
+    public int[] pal24 = new int[256];
+    public boolean bitFmtOutSet=false;
+    // when set, makeBMP() hands the BMP to this instead of writing it itself
+    public static WriteQueue writeQueue = null;
+    // when set, each different BMP is written once & linked to (see Dedup)
+    public static Dedup dedup = null;
+    // 16-bit -> 24-bit lookup table for bitFmtIn, picked in set16BitFmtIn()
+    public int[] lut16;
+    private boolean keep555=false;
+    private static int[][] luts = new int[3][];
+    // reused work arrays, so a JBL object shouldn't be shared between threads
+    private byte[] imgBuf = new byte[0], row24 = new byte[0], px1 = new byte[3];
+    private byte[] fillRow = new byte[0], rowOut = new byte[0];
+    private int fillBpp = 0;
+    // direct buffers for newPixels() & the BMP header, one set per thread
+    private static ThreadLocal<ByteBuffer> pxBufs =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(0));
+    private static ThreadLocal<ByteBuffer> hdrBufs =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(54));
 
     // constructor for JBL class
     public JBL() {}
@@ -48,7 +72,7 @@ public class JBL {
     // The mutators need to be run before getImgBytes(), to have any effect
 
     // Sets the file-related variables, required for all
-    public static void setFileVars(String fileDir,String bmpRootName) {
+    public void setFileVars(String fileDir,String bmpRootName) {
         // File Directory String (should include the File.separator)
         dir = fileDir;
         // The name that will serve as the base for all bitmap output
@@ -56,13 +80,15 @@ public class JBL {
     }
 
     // Sets the pixel-related variables, required for all
-    public static void setBmpVars(int W, int H, int bitDepth) {
+    public void setBmpVars(int W, int H, int bitDepth) {
         // Bitmap width in pixels
         w = W;
         // Bitmap height in pixels
         h = H;
         // Bits Per Pixel
         bpp = bitDepth;
+        // Bytes Per Pixel
+        Bpp = bpp / 8;
         // Set bpp output
         if (bpp == 8 && !bitFmtOutSet) bppOut = 24;
         if (bpp != 8 && !bitFmtOutSet) bppOut = bpp;
@@ -73,28 +99,37 @@ public class JBL {
     }
 
     // Sets the palette array, required for 8-bit conversions
-    public static void setPalette(byte[][] pal) {
+    public void setPalette(byte[][] pal) {
         palette = pal;
+        pal24 = packPalette(pal);
+    }
+
+    // Sets the packed palette directly, see packPalette()
+    public void setPalette(int[] packedPal) {
+        pal24 = packedPal;
     }
 
     // Sets the input bit format, required for 16-bit conversions
-    public static void set16BitFmtIn(String bitFormat) {
+    public void set16BitFmtIn(String bitFormat) {
         bitFmtIn = bitFormat;
         bitFmtOut = bitFormat;
+        lut16 = get16BitTable(bitFormat);
+        keep555 = RGB555.equals(bitFmtIn) && RGB555.equals(bitFmtOut);
     }
 
     // Sets bit format output, required for a bppOut != bpp
     // 8bit input will default to 24bit output if this is not set
-    public static void setBitFmtOut(String bitFormat)
+    public void setBitFmtOut(String bitFormat)
     {
         bitFmtOut = bitFormat;
+        keep555 = RGB555.equals(bitFmtIn) && RGB555.equals(bitFmtOut);
         if (bitFmtOut.equals(RGB24)) bppOut = 24;
         if (!bitFmtOut.equals(RGB24)) bppOut = 16;
         bitFmtOutSet = true;
     }
 
     // Sets length of largest # & returns it, required for makeBMP(byte[],int)
-    public static int setImgSetSize(int numberOfImages) {
+    public int setImgSetSize(int numberOfImages) {
         return nLen = String.valueOf(numberOfImages).length();
     }
 
@@ -102,7 +137,7 @@ public class JBL {
     // #######################################################################
 
     // Place bitmap bytes in a byte array
-    public static byte[] getImgBytes(ByteBuffer bb, int dataLength) {
+    public byte[] getImgBytes(ByteBuffer bb, int dataLength) {
         // dataLength is for grabbing compressed data, just set to 0 if unneeded
         if (dataLength != 0) dataSize = dataLength;
         byte[] rawBitmap = new byte[dataSize];
@@ -111,8 +146,24 @@ public class JBL {
         return rawBitmap;
     }
 
+    // Points at the bitmap bytes without a copy if the buffer is backed by an
+    // array, otherwise reads them into an array that gets reused next time.
+    // Either way, the data starts at imgPos in the returned array.
+    public byte[] viewImgBytes(ByteBuffer bb, int dataLength) {
+        if (dataLength != 0) dataSize = dataLength;
+        if (bb.hasArray()) {
+            imgPos = bb.arrayOffset() + bb.position();
+            bb.position(bb.position() + dataSize);
+            return bb.array();
+        }
+        if (imgBuf.length < dataSize) imgBuf = new byte[dataSize];
+        bb.get(imgBuf,0,dataSize);
+        imgPos = 0;
+        return imgBuf;
+    }
+
     // An interface to convert pixels to a standard RGB format
-    public static byte[] toStdRGB(byte[] rawPixels) {
+    public byte[] toStdRGB(byte[] rawPixels) {
         byte[] temp24 = toRGB24(rawPixels);
 
         if (bppOut == 16){
@@ -123,99 +174,60 @@ public class JBL {
     }
 
     // Converts other BMP formats to the uncompressed 24-bit format
-    public static byte[] toRGB24(byte[] rawBytes) {
-        byte[] px = new byte[pixels * 3];
+    public byte[] toRGB24(byte[] rawBytes) {
+        if (bpp == 8 || (bpp == 16 && lut16 != null)) {
+            byte[] px = new byte[pixels * 3];
+            to24(rawBytes, 0, px, 0, pixels);
+            return px;
+        }
+        // pass 24-bit bitmap data right through untouched
+        return rawBytes;
+    }
+
+    // Converts n pixels to the 24-bit format, from one array index to another
+    public void to24(byte[] rawBytes, int src, byte[] px, int dst, int n) {
         // convert 8-bit bmp data to 24-bit data
         if (bpp == 8) {
-            for (int i = 0; i < pixels; i++) {
-                int x = i*3, r=0, g=1, b=2;
-                // get the color index from the 8bit bmp array
-                int c = rawBytes[i];
-                // bytes are always signed, deal with the negative half
-                if (c < 0) c = (c & 0xFF);
-                // add/assign the rgb bytes from the palette based on the index
-                px[x] = palette[c][r];
-                px[x + 1] = palette[c][g];
-                px[x + 2] = palette[c][b];
+            for (int i = 0; i < n; i++) {
+                int x = dst + i*3;
+                // the color index is an unsigned byte, the mask handles that
+                int c = pal24[rawBytes[src + i] & 0xFF];
+                // add/assign the bgr bytes from the packed palette color
+                px[x] = (byte)c;
+                px[x + 1] = (byte)(c >> 8);
+                px[x + 2] = (byte)(c >> 16);
             }
         }
         // ######################## 16-bit Conversions ########################
-        else if (bpp == 16 && bitFmtIn.equals(RGB555)) {
-            // RGB555 (5 bits per color) stored in 2 bytes
-            for (int i = 0; i < pixels; i++) {
-                // A shoutout to OrigamiGuy for insight on this conversion
-                int x = i * 2, y = i * 3;
-                byte b1 = rawBytes[x], b2 = rawBytes[x + 1];
-                // assign the bits inside the 2 bytes to r, g, b vars
-                int b = (b1 & 0x1F) << 3;
-                int g = ((b2 & 0x03) << 6) | ((b1 & 0xE0) >> 2);
-                int r = (b2 & 0x7C) << 1;
-                // mirror the 5 bits to 3 empty ones to get the right 8bit vals
-                r = r | r >> 5;
-                g = g | g >> 5;
-                b = b | b >> 5;
-                // change the int vars to bytes vars & add them to px array add
-                // them in reverse order b/c that is the way format is, ugh
-                px[y] = (byte)b;
-                px[y + 1] = (byte)g;
-                px[y + 2] = (byte)r;
-            }
-        } else if (bpp == 16 && bitFmtIn.equals(RGB565)) {
-            // RGB565 stored in 2 bytes (as bgr)
-            for (int i = 0; i < pixels; i++) {
-                int x = i * 2, y = i * 3;
-                byte b1 = rawBytes[x], b2 = rawBytes[x + 1];
-                // assign the bits inside the 2 bytes to r, g, b vars
-                int b = (b1 & 0x1F) << 3;
-                int g = ((b2 & 0x07) << 5) | ((b1 & 0xE0) >> 3);
-                int r = (b2 & 0xF8);
-                // mirror the color bits to the empty bits for correct 8bit vals
-                r = r | r >> 5;
-                g = g | g >> 6;
-                b = b | b >> 5;
-                // change the int vars to bytes vars & add them to px array add
-                // them in reverse order b/c that is the way format is, ugh
-                px[y] = (byte)b;
-                px[y + 1] = (byte)g;
-                px[y + 2] = (byte)r;
-            }
-        } else if (bpp == 16 && bitFmtIn.equals(ARGB16)) {
-            // ARGB16 (ARGB4444) (4 bits per color) stored in 2 bytes
-            // bitmaps don't support transparency, so even though this format is
-            // mainly used to support it in 16-bit, I'm going to ignore it, ftb.
-            for (int i = 0; i < pixels; i++) {
-                int x = i * 2, y = i * 3;
-                byte b1 = rawBytes[x], b2 = rawBytes[x + 1];
-                // assign the bits inside the 2 bytes to a, r, g, b vars
-                int a = (b2 & 0xF0);
-                int r = (b2 & 0x0F) << 4;
-                int g = (b1 & 0xF0);
-                int b = (b1 & 0x0F) << 4;
-                // mirror the 4 bits to 4 empty ones to get the right 8bit vals
-                a = a | a >> 4;
-                r = r | r >> 4;
-                g = g | g >> 4;
-                b = b | b >> 4;
-                // change the int vars to bytes vars & add them to px array add
-                // them in reverse order b/c that is the way format is, ugh
-                px[y] = (byte)b;
-                px[y + 1] = (byte)g;
-                px[y + 2] = (byte)r;
+        else if (bpp == 16 && lut16 != null) {
+            // Every 16-bit value has its 24-bit color worked out in the table
+            for (int i = 0; i < n; i++) {
+                int x = src + i * 2, y = dst + i * 3;
+                int c = lut16[(rawBytes[x] & 0xFF) | (rawBytes[x + 1] & 0xFF) << 8];
+                // the table holds them in b, g, r order, lowest byte first
+                px[y] = (byte)c;
+                px[y + 1] = (byte)(c >> 8);
+                px[y + 2] = (byte)(c >> 16);
             }
         } else {
-            // pass 24-bit bitmap data right through untouched
-            px = rawBytes;
+            // 24-bit bitmap data is already there, just copy it
+            System.arraycopy(rawBytes, src, px, dst, n * 3);
         }
-        return px;
     }
 
     // Converts standard 24-bit BMP pixels to 16-bit
-    public static byte[] toRGB16(byte[] rgb24) {
+    public byte[] toRGB16(byte[] rgb24) {
         byte[] rgb16 = new byte[pixels * 2];
+        to16(rgb24, 0, rgb16, 0, pixels);
+        return rgb16;
+    }
+
+    // Converts n 24-bit pixels to 16-bit, from one array index to another
+    public void to16(byte[] rgb24, int src, byte[] rgb16, int dst, int n) {
         if (bitFmtOut.equals(RGB555)) {
             // RGB24 to RGB555 (5 bits per color) stored in 2 bytes
-            for (int i = 0; i < pixels; i++) {
-                int x = i * 2, y = i * 3;
+            for (int i = 0; i < n; i++) {
+                int x = dst + i * 2, y = src + i * 3;
                 byte b = rgb24[y], g = rgb24[y + 1], r = rgb24[y + 2];
                 int b1 = ((g << 2) & 0xE0) | ((b >> 3) & 0x1F);
                 int b2 = ((r >> 1) & 0x7C) | ((g >> 6) & 0x03);
@@ -225,8 +237,8 @@ public class JBL {
             }
         } else if (bitFmtOut.equals(ARGB16)) {
             // RGB24 to ARGB16 stored in 2 bytes
-            for (int i = 0; i < pixels; i++) {
-                int x = i * 2, y = i * 3;
+            for (int i = 0; i < n; i++) {
+                int x = dst + i * 2, y = src + i * 3;
                 byte b = rgb24[y], g = rgb24[y + 1], r = rgb24[y + 2];
                 // assign the a, r, g, b vars to 2 bytes
                 int b1 = (g & 0xF0) | (b & 0x0F);
@@ -237,8 +249,8 @@ public class JBL {
             }
         } else {
             // RGB24 to RGB565 Standard 16bit Format for bitmaps
-            for (int i=0; i < pixels; i++) {
-                int x = i * 2, y = i * 3;
+            for (int i=0; i < n; i++) {
+                int x = dst + i * 2, y = src + i * 3;
                 byte b = rgb24[y], g = rgb24[y + 1], r = rgb24[y + 2];
                 int b1 = ((g << 3) & 0xE0) | ((b >> 3) & 0x1F);
                 int b2 = (r & 0xF8) | ((g >> 5) & 0x07);
@@ -247,11 +259,10 @@ public class JBL {
                 rgb16[x + 1] = (byte)b2;
             }
         }
-        return rgb16;
     }
 
     // add the necessary scanline byte padding required by bitmaps
-    public static byte[] addPadding(byte[] rgb, int BppOut) {
+    public byte[] addPadding(byte[] rgb, int BppOut) {
         int colorBytes = w * BppOut, padBytes = (4 - (w * BppOut % 4)) % 4;
         int scanline = colorBytes + padBytes, size = scanline * h, dex1 = 0, dex2 = 0;
         byte[] scanlines = new byte[size];
@@ -274,7 +285,7 @@ public class JBL {
     }
 
     // remove the scanline byte padding required by bitmaps
-    public static byte[] stripPadding(byte[] scanlines) {
+    public byte[] stripPadding(byte[] scanlines) {
         int colorBytes=w * (bpp / 8), padBytes = (4 - (w * (bpp / 8) % 4)) % 4;
         int scanline = colorBytes + padBytes, size = colorBytes * h, dex1 = 0, dex2 = 0;
         byte[] rgb = new byte[size];
@@ -296,7 +307,7 @@ public class JBL {
 
     // For BMP's convoluted format to work well the data needs to written
     // bottom-up, with the last scanline at the top and vice versa.
-    public static byte[] reverseRows(byte[] topDownLines) {
+    public byte[] reverseRows(byte[] topDownLines) {
         int scanline = (topDownLines.length / h), dex1 = 0, dex2 = 0;
         byte[] trueScanlines = new byte[topDownLines.length];
         byte[][] scanlines = new byte[h][scanline];
@@ -315,7 +326,7 @@ public class JBL {
     }
 
     // Makes the final BMP image array
-    public static byte[] setBMP(byte[] scanlines, boolean vertFlip) {
+    public byte[] setBMP(byte[] scanlines, boolean vertFlip) {
         // Set BMP output size
         int imgSize = scanlines.length+54;
         byte[] bmp = new byte[imgSize];
@@ -326,7 +337,12 @@ public class JBL {
     }
 
     // Make/Set the BMP header array
-    public static byte[] setHeader(int bsize, byte[] data, boolean hFlip) {
+    public byte[] setHeader(int bsize, byte[] data, boolean hFlip) {
+        return setHeader(bsize, data.length, hFlip);
+    }
+
+    // Make/Set the BMP header array, for pixel data of the given length
+    public byte[] setHeader(int bsize, int dataLength, boolean hFlip) {
         // if needed, flip image vertically, the easy way, make height negative
         if (hFlip) h = -h;
         // If you want to know what the values in this function mean, read this
@@ -344,7 +360,7 @@ public class JBL {
         addInt2Arr2(26,hdr,1);
         addInt2Arr2(28,hdr,bppOut);
         addInt2Arr4(30,hdr,0);
-        addInt2Arr4(34,hdr,data.length);
+        addInt2Arr4(34,hdr,dataLength);
         addInt2Arr4(38,hdr,2835);
         addInt2Arr4(42,hdr,2835);
         addInt2Arr4(46,hdr,0);
@@ -353,36 +369,323 @@ public class JBL {
     }
 
     // combine the header and scanline arrays & return as single new array
-    public static byte[] joinImgParts(int bsize, byte[] hdr, byte[] data) {
+    public byte[] joinImgParts(int bsize, byte[] hdr, byte[] data) {
         byte[] bitmap = new byte[bsize];
         System.arraycopy(hdr, 0, bitmap, 0, hdr.length);
         System.arraycopy(data, 0, bitmap, 54, data.length);
         return bitmap;
     }
 
+    // Packs a [256][3] palette into 256 ints, the 3 bytes in the same order
+    // they get written out in, so 8-bit conversion is a single array lookup
+    public static int[] packPalette(byte[][] pal) {
+        int[] packed = new int[256];
+        if (pal == null) return packed;
+        for (int c = 0; c < pal.length && c < 256; c++) {
+            packed[c] = (pal[c][0] & 0xFF) | (pal[c][1] & 0xFF) << 8 |
+                (pal[c][2] & 0xFF) << 16;
+        }
+        return packed;
+    }
+
+    // ######################## 16-bit Lookup Tables #########################
+    // There are only 65536 possible 16-bit pixels, so each format gets a table
+    // of their 24-bit colors (b | g << 8 | r << 16). Made once, when first
+    // asked for, then shared by every JBL object since they never change.
+
+    // Gets the lookup table for a 16-bit format, null for any other format
+    public static int[] get16BitTable(String bitFormat) {
+        int t;
+        if (RGB555.equals(bitFormat)) t = 0;
+        else if (RGB565.equals(bitFormat)) t = 1;
+        else if (ARGB16.equals(bitFormat)) t = 2;
+        else return null;
+        synchronized (luts) {
+            if (luts[t] == null) {
+                int[] lut = new int[65536];
+                for (int v = 0; v < 65536; v++) {
+                    lut[v] = unpack16(bitFormat, (byte)v, (byte)(v >> 8));
+                }
+                luts[t] = lut;
+            }
+            return luts[t];
+        }
+    }
+
+    // Converts a single 16-bit pixel (2 bytes) to its packed 24-bit color
+    public static int unpack16(String bitFormat, byte b1, byte b2) {
+        int r, g, b;
+        if (bitFormat.equals(RGB555)) {
+            // RGB555 (5 bits per color) stored in 2 bytes
+            // A shoutout to OrigamiGuy for insight on this conversion
+            // assign the bits inside the 2 bytes to r, g, b vars
+            b = (b1 & 0x1F) << 3;
+            g = ((b2 & 0x03) << 6) | ((b1 & 0xE0) >> 2);
+            r = (b2 & 0x7C) << 1;
+            // mirror the 5 bits to 3 empty ones to get the right 8bit vals
+            r = r | r >> 5;
+            g = g | g >> 5;
+            b = b | b >> 5;
+        } else if (bitFormat.equals(RGB565)) {
+            // RGB565 stored in 2 bytes (as bgr)
+            // assign the bits inside the 2 bytes to r, g, b vars
+            b = (b1 & 0x1F) << 3;
+            g = ((b2 & 0x07) << 5) | ((b1 & 0xE0) >> 3);
+            r = (b2 & 0xF8);
+            // mirror the color bits to the empty bits for correct 8bit vals
+            r = r | r >> 5;
+            g = g | g >> 6;
+            b = b | b >> 5;
+        } else {
+            // ARGB16 (ARGB4444) (4 bits per color) stored in 2 bytes
+            // bitmaps don't support transparency, so even though this format is
+            // mainly used to support it in 16-bit, I'm going to ignore it, ftb.
+            r = (b2 & 0x0F) << 4;
+            g = (b1 & 0xF0);
+            b = (b1 & 0x0F) << 4;
+            // mirror the 4 bits to 4 empty ones to get the right 8bit vals
+            r = r | r >> 4;
+            g = g | g >> 4;
+            b = b | b >> 4;
+        }
+        // they go in reverse order b/c that is the way format is, ugh
+        return (b & 0xFF) | (g & 0xFF) << 8 | (r & 0xFF) << 16;
+    }
+
+    // ####################### Single-pass BMP building #######################
+    // Instead of toStdRGB() -> reverseRows() -> setBMP(), which make a new
+    // array at each step, newBMP() makes the final array (header included) and
+    // putPixels()/fillPixels() convert pixels straight into their final spot:
+    // padded, in the output format, and on the bottom-up scanline they go on.
+    // Pixels are numbered like the top-down input: p = (y * w) + x
+
+    // Makes the full BMP array, with header, for the current bmp vars
+    public byte[] newBMP() {
+        int imgSize = setScanline() * h + 54;
+        byte[] bmp = new byte[imgSize];
+        System.arraycopy(setHeader(imgSize, scanline * h, false), 0, bmp, 0, 54);
+        return bmp;
+    }
+
+    // Makes a buffer for just the pixel data (no header) of the current bmp
+    // vars, for makeBMP(ByteBuffer,int,String) to write. Normally it's this
+    // thread's direct buffer, reused, so the pixels go from it to the disk
+    // without another copy. A write queue needs each BMP to stay put until
+    // it is written though, so then it's a view into a new newBMP() array.
+    public ByteBuffer newPixels() {
+        if (writeQueue != null) {
+            byte[] bmp = newBMP();
+            return ByteBuffer.wrap(bmp, 54, bmp.length - 54).slice();
+        }
+        int size = setScanline() * h, row = w * (bppOut / 8);
+        ByteBuffer px = pxBufs.get();
+        if (px.capacity() < size) {
+            // round up, so slightly bigger bitmaps don't each need a new one
+            px = ByteBuffer.allocateDirect((size + 0xFFFF) & ~0xFFFF);
+            pxBufs.set(px);
+        }
+        ((Buffer) px).clear();
+        ((Buffer) px).limit(size);
+        // pixels all get put, but the padding is left over from the last BMP
+        for (int y = 0; row < scanline && y < h; y++) {
+            for (int i = row; i < scanline; i++) px.put(y * scanline + i, (byte)0);
+        }
+        return px;
+    }
+
+    // Sets (and returns) the padded scanline size for the current bmp vars
+    private int setScanline() {
+        int BppOut = bppOut / 8;
+        scanline = w * BppOut + (4 - (w * BppOut % 4)) % 4;
+        return scanline;
+    }
+
+    // Convert n input pixels at src into the bmp, starting at pixel p.
+    // Returns the pixel number after the last one put.
+    public int putPixels(byte[] rawBytes, int src, byte[] bmp, int p, int n) {
+        return putPixels(rawBytes, src, bmp, 54, p, n);
+    }
+
+    // Same as above, but into a buffer from newPixels()
+    public int putPixels(byte[] rawBytes, int src, ByteBuffer px, int p, int n) {
+        if (px.hasArray())
+            return putPixels(rawBytes, src, px.array(), px.arrayOffset(), p, n);
+        // A direct buffer can't be converted into, so go through rowOut
+        int BppOut = bppOut / 8;
+        if (rowOut.length < w * BppOut) rowOut = new byte[w * BppOut];
+        while (n > 0) {
+            int y = p / w, x = p % w, len = Math.min(n, w - x);
+            convert(rawBytes, src, rowOut, 0, len);
+            ((Buffer) px).position((h - 1 - y) * scanline + x * BppOut);
+            px.put(rowOut, 0, len * BppOut);
+            src += len * Bpp;
+            p += len;
+            n -= len;
+        }
+        return p;
+    }
+
+    // Pixel data starts at base in the bmp (54 for a full BMP array)
+    private int putPixels(byte[] rawBytes, int src, byte[] bmp, int base, int p, int n) {
+        int BppOut = bppOut / 8;
+        while (n > 0) {
+            // Stop at the end of each scanline, the next one is above it
+            int y = p / w, x = p % w, len = Math.min(n, w - x);
+            int dst = base + (h - 1 - y) * scanline + x * BppOut;
+            convert(rawBytes, src, bmp, dst, len);
+            src += len * Bpp;
+            p += len;
+            n -= len;
+        }
+        return p;
+    }
+
+    // Put n copies of the input pixel at src into the bmp, starting at pixel
+    // p. Returns the pixel number after the last one put.
+    public int fillPixels(byte[] rawPixel, int src, byte[] bmp, int p, int n) {
+        return fillPixels(rawPixel, src, bmp, 54, p, n);
+    }
+
+    // Same as above, but into a buffer from newPixels()
+    public int fillPixels(byte[] rawPixel, int src, ByteBuffer px, int p, int n) {
+        if (px.hasArray())
+            return fillPixels(rawPixel, src, px.array(), px.arrayOffset(), p, n);
+        int BppOut = bppOut / 8;
+        byte[] pattern = fillPattern(rawPixel, src, BppOut);
+        while (n > 0) {
+            int y = p / w, x = p % w, len = Math.min(n, w - x);
+            ((Buffer) px).position((h - 1 - y) * scanline + x * BppOut);
+            px.put(pattern, 0, len * BppOut);
+            p += len;
+            n -= len;
+        }
+        return p;
+    }
+
+    // Pixel data starts at base in the bmp (54 for a full BMP array)
+    private int fillPixels(byte[] rawPixel, int src, byte[] bmp, int base, int p, int n) {
+        int BppOut = bppOut / 8;
+        byte[] pattern = fillPattern(rawPixel, src, BppOut);
+        while (n > 0) {
+            int y = p / w, x = p % w, len = Math.min(n, w - x);
+            int dst = base + (h - 1 - y) * scanline + x * BppOut;
+            System.arraycopy(pattern, 0, bmp, dst, len * BppOut);
+            p += len;
+            n -= len;
+        }
+        return p;
+    }
+
+    // A scanline's worth of the converted pixel, so fills are a single copy.
+    // Only remade when the pixel, or the width, is new since the last fill.
+    private byte[] fillPattern(byte[] rawPixel, int src, int BppOut) {
+        convert(rawPixel, src, px1, 0, 1);
+        int size = w * BppOut;
+        boolean same = fillRow.length >= size && fillBpp == BppOut;
+        for (int c = 0; same && c < BppOut; c++) {
+            same = (fillRow[c] == px1[c]);
+        }
+        if (!same) {
+            fillRow = new byte[Math.max(size, BppOut)];
+            fillBpp = BppOut;
+            // copy the pixel, then keep doubling what's been copied
+            System.arraycopy(px1, 0, fillRow, 0, BppOut);
+            for (int done = BppOut; done < fillRow.length; done *= 2) {
+                System.arraycopy(fillRow, 0, fillRow, done,
+                    Math.min(done, fillRow.length - done));
+            }
+        }
+        return fillRow;
+    }
+
+    // Convert n input pixels to the output format, what toStdRGB() does
+    private void convert(byte[] rawBytes, int src, byte[] dst, int dstPos, int n) {
+        if (bppOut == 24) {
+            to24(rawBytes, src, dst, dstPos, n);
+        } else if (bpp == 16 && keep555) {
+            // RGB555 -> RGB24 -> RGB555 only loses the unused top bit
+            for (int i = 0; i < n; i++) {
+                int x = src + i * 2, y = dstPos + i * 2;
+                dst[y] = rawBytes[x];
+                dst[y + 1] = (byte)(rawBytes[x + 1] & 0x7F);
+            }
+        } else {
+            if (row24.length < n * 3) row24 = new byte[n * 3];
+            to24(rawBytes, src, row24, 0, n);
+            to16(row24, 0, dst, dstPos, n);
+        }
+    }
+
     // Output single BMP to file
-    public static void makeBMP(byte[] bmp) {
+    public void makeBMP(byte[] bmp) {
         try {
             // Set BMP name and location, then write BMP to file
             File img = new File(dir + name+".bmp");
-            Files.write(img.toPath(),bmp);
+            writeFile(img.toPath(),bmp);
         } catch (Exception ex) {
             out.println("Error in (makeBMP):\n" + ex);
         }
     }
 
     // For use when making a set of BMP (one at a time in a loop)
-    public static void makeBMP(byte[] bmp, int currentNum, String suffix) {
+    public void makeBMP(byte[] bmp, int currentNum, String suffix) {
         try {
             // Set BMP name and location, then write BMP to file
-            String sNum = String.format("%0" + nLen + "d", currentNum);
-            File img = new File(dir + name + "_" + sNum + suffix + ".bmp");
-            Files.write(img.toPath(), bmp);
+            writeFile(setPath(currentNum, suffix), bmp);
         } catch (Exception ex) {
             out.println("Error in (makeBMPSet):\n" + ex);
         }
     }
 
+    // Same as above, but for the pixel buffer from newPixels(). A direct one
+    // gets written right after the header, in one (gathering) write call.
+    public void makeBMP(ByteBuffer px, int currentNum, String suffix) {
+        if (px.hasArray()) {
+            makeBMP(px.array(), currentNum, suffix);
+            return;
+        }
+        try {
+            ((Buffer) px).rewind();
+            ByteBuffer hdr = hdrBufs.get();
+            ((Buffer) hdr).clear();
+            hdr.put(setHeader(px.remaining() + 54, px.remaining(), false));
+            ((Buffer) hdr).flip();
+            Path path = setPath(currentNum, suffix);
+            if (dedup != null) {
+                dedup.write(path, hdr, px);
+                return;
+            }
+            ByteBuffer[] parts = {hdr, px};
+            Dedup.unshare(path);
+            try (FileChannel fc = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (px.hasRemaining()) fc.write(parts);
+            }
+        } catch (Exception ex) {
+            out.println("Error in (makeBMPSet):\n" + ex);
+        }
+    }
+
+    // The file path of BMP number currentNum of the set
+    public Path setPath(int currentNum, String suffix) {
+        String sNum = String.format("%0" + nLen + "d", currentNum);
+        return new File(dir + name + "_" + sNum + suffix + ".bmp").toPath();
+    }
+
+
+    // Write the file now, or queue it if there is a write queue. The store
+    // writes right away, since the link has to come after the stored copy.
+    private static void writeFile(Path path, byte[] bmp) throws IOException {
+        if (dedup != null) {
+            dedup.write(path, ByteBuffer.wrap(bmp));
+        } else if (writeQueue != null) {
+            writeQueue.write(path, bmp);
+        } else {
+            Dedup.unshare(path);
+            Files.write(path, bmp);
+        }
+    }
 
     // ########################## Utility Functions ############################
     // Utility functions mostly for internal use, but feel free to use them
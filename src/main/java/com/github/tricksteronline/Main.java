@@ -16,8 +16,12 @@ GNU General Public License for more details.
 */
 import java.io.*;
 import java.nio.*;
+import java.nio.channels.*;
 import java.nio.file.*;
-import java.util.zip.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.Deflater;
 import static java.lang.System.out;
 /**
 Class Description:
@@ -38,100 +42,336 @@ public class Main {
     // class variables
     public static char mode;
     public static boolean argsBool=false;
-    public static int argsLen=0;
-    public static File noriFile, cfg;
-    public static byte[] fba; // fba: file byte array
+    // set when an option's value can't be used, nothing is run then
+    private static boolean badOption=false;
+    public static boolean mmap=false;
+    // walk directory args for NORI files, instead of only taking files
+    public static boolean recursive=false;
+    // on-disk cache of analyzed (& inflated) files, null when not used
+    public static Cache cache = null;
+    private static String cacheDir = null;
+    private static long cacheMax = 1024;
+    private static boolean cachePayload = false;
+    public static int argsLen=0, threads=1;
+    public static File cfg;
+    // kept between daemon jobs, so a job with the same --bmp-threads reuses it
+    private static ForkJoinPool bmpPool = null;
 
     // Main function (keep clean)
     public static void main(String[] args) {
-        NORI nf = new NORI();
-        argsLen = args.length;
-        argsBool = argCheck(args);
-        if (argsBool) {
-            if (mode != 'c') {
-                for (int i=1; i < argsLen; i++) {
-                    noriFile = new File(args[i]);
-                    if (noriFile.exists()) {
-                        NORI.setNFileVars(noriFile,0);
-                        NORI.checkDir();
-                        fba = byteLoader(noriFile);
-                        runMode(inflateIfNeeded(fba));
+        run(args);
+    }
+
+    // Runs one command line, for main() or one daemon job
+    public static void run(String[] args) {
+        args = setOptions(args);
+        try {
+            argsLen = args.length;
+            argsBool = !badOption && argCheck(args);
+            if (argsBool) {
+                if (mode != 'c' && mode != 'x' && mode != 'd') {
+                    if (threads > 1 || recursive) {
+                        Batch optb = new Batch(fileList(args), threads);
                     } else {
-                        argErrors(3);
+                        for (int i=1; i < argsLen; i++) {
+                            File noriFile = new File(args[i]);
+                            if (noriFile.exists()) {
+                                runFile(noriFile);
+                            } else {
+                                argErrors(3);
+                            }
+                        }
                     }
+                } else if (mode == 'd') {
+                    int port = (argsLen == 2) ? Integer.parseInt(args[1]) : Daemon.PORT;
+                    // Without --cache, the daemon keeps its cache in memory
+                    Daemon optd = new Daemon(port,
+                        (cache != null) ? cache : new Cache(null, cacheMax << 20, true));
+                } else if (mode == 'x') {
+                    for (int i=1; i < argsLen; i++) {
+                        BinCfg.convert(new File(args[i]));
+                    }
+                } else {
+                    Create optC = new Create(cfg, args[2]);
                 }
+            }
+        } finally {
+            // Don't exit before the queued BMP are all on disk, even when the
+            // run failed, or the writers are left running with their errors
+            if (JBL.writeQueue != null) JBL.writeQueue.finish();
+            if (JBL.dedup != null) JBL.dedup.finish();
+            if (argsBool && JBL.dedup != null) JBL.dedup.summary();
+        }
+    }
+
+    // Puts every option back to its default, so one daemon job's options
+    // don't carry over to the next. The daemon's own cache stays.
+    public static void resetOptions() {
+        mode = 0;
+        argsBool = false;
+        badOption = false;
+        mmap = false;
+        recursive = false;
+        cache = Daemon.cache;
+        cacheDir = null;
+        cacheMax = 1024;
+        cachePayload = false;
+        argsLen = 0;
+        threads = 1;
+        cfg = null;
+        Extract.bmpPool = null;
+        Extract.incremental = false;
+        JBL.writeQueue = null;
+        JBL.dedup = null;
+        Create.zlib = false;
+        Deflate.level = Deflater.DEFAULT_COMPRESSION;
+        Deflate.strategy = Deflater.DEFAULT_STRATEGY;
+        Analyze.binCfg = false;
+    }
+
+    // Loads, inflates, & runs the selected mode on a single NORI file. Every
+    // call gets its own NORI object, so calls can safely run side by side.
+    // Returns false if the file could not be processed, the mode's own error
+    // output has already explained why by then.
+    public static boolean runFile(File noriFile) {
+        NORI nf = new NORI();
+        nf.setNFileVars(noriFile,0);
+        nf.checkDir();
+        // An unchanged file that is already extracted doesn't even get loaded
+        if (Extract.incremental && (mode == 'e' || mode == 'E')
+                && Manifest.upToDate(nf, mode == 'E')) {
+            out.println("Up to date: " + nf.name);
+            return true;
+        }
+        try {
+            ByteBuffer fbb = mmap ? mapLoader(noriFile) : byteLoader(noriFile);
+            if (cache == null)
+                runMode(nf, inflateIfNeeded(fbb));
+            else
+                runCached(nf, noriFile, fbb);
+        } catch(Exception ex) {
+            return false;
+        }
+        return true;
+    }
+
+    // Same as above, but a good cache entry saves the Analyzer & inflating,
+    // and anything new about the file is saved for next time
+    private static void runCached(NORI nf, File noriFile, ByteBuffer fbb) throws IOException {
+        Cache.Key k = cache.key(noriFile, fbb);
+        // a & s are run for the Analyzer's own output, so they still run it
+        boolean modelHit = (mode != 'a' && mode != 's') && cache.model(k, nf);
+        // A doesn't look at the data at all if the model came from the cache
+        ByteBuffer bb = fbb;
+        if (!(modelHit && mode == 'A')) {
+            ByteBuffer cached = cache.payload(k);
+            bb = (cached != null) ? cached : inflateIfNeeded(fbb);
+        }
+        runMode(nf, bb);
+        cache.store(k, nf, (bb != fbb) ? bb : null);
+    }
+
+    // Gathers the existing files from the args, complaining about the others
+    private static List<File> fileList(String[] args) {
+        List<File> files = new ArrayList<>();
+        for (int i=1; i < argsLen; i++) {
+            File noriFile = new File(args[i]);
+            if (recursive && noriFile.isDirectory()) {
+                scanDir(noriFile, files);
+            } else if (noriFile.exists()) {
+                files.add(noriFile);
             } else {
-                Create optC = new Create(cfg, args[2]);
+                argErrors(3);
             }
         }
+        return files;
+    }
+
+    // Walks a directory tree for the NORI files in it (.nri & .bac). A folder
+    // that can't be read is reported & skipped, the rest are still walked.
+    private static void scanDir(File root, List<File> files) {
+        try {
+            Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path p, BasicFileAttributes attr) {
+                    String name = p.getFileName().toString().toLowerCase();
+                    if (attr.isRegularFile() &&
+                        (name.endsWith(".nri") || name.endsWith(".bac")))
+                        files.add(p.toFile());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path p, IOException ex) {
+                    out.println("Error in (SCAN):\n"+ex);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch(IOException ex) {
+            out.println("Error in (SCAN):\n"+ex);
+        }
     }
 
     // This function loads the file into a byte array, so other functions can
     // access it. Does nothing else. No need to name the file after it ;)
-    private static byte[] byteLoader(File file) {
+    private static ByteBuffer byteLoader(File file) {
         // Max byte array size is ~2GB, which is much longer than any existing
         // NORI file so we don't have to check for a file that is too big.
-        byte[] bytes = new byte[(int)file.length()];
         try {
             // Loads file into byte array
-            bytes = Files.readAllBytes(file.toPath());
-        } catch(Exception ex) {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        } catch(IOException ex) {
             out.println("Error in (FBA):\n"+ex);
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // Maps the file into memory read-only instead of copying it to the heap.
+    // The OS pages it in as Analyzer/Extract walk through it, so uncompressed
+    // files never need a heap copy of the whole archive.
+    private static ByteBuffer mapLoader(File file) {
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer mbb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            mbb.order(ByteOrder.LITTLE_ENDIAN);
+            return mbb;
+        } catch(IOException ex) {
+            out.println("Error in (MAP):\n"+ex);
+            throw new UncheckedIOException(ex);
         }
-        return bytes;
     }
 
     // Checks for and decompresses zlib compression if found
-    private static byte[] inflateIfNeeded(byte[] in) {
-        int fsig, decompsz, cmpdatasz;
-        boolean fsb;
-        ByteBuffer bb = ByteBuffer.wrap(in).order(ByteOrder.LITTLE_ENDIAN);
-        fsig = bb.getInt();
-        fsb = (fsig != 1230131022);
-        decompsz = bb.getInt();
-        cmpdatasz = bb.getInt();
-        if (fsb && in[12] == 0x78 && (in[13] == 0x01 || in[13] == 0x9C || in[13] == 0xDA)) {
-            byte[] tmp = new byte[decompsz];
-            try {
-                // Inflater class expects the zlib header to be included unless
-                // initialized to Inflater(true) instead of Inflater()
-                Inflater dcmp = new Inflater();
-                // Loads input byte array, start offset, compressed data size
-                dcmp.setInput(in,12,cmpdatasz);
-                // inflate funct takes in the recipient array and loads it with
-                // the result. Also has a return value: the decompressed size
-                int realsz = dcmp.inflate(tmp);
-                dcmp.end();
-                if (decompsz == realsz) {
-                    out.println("Decompression successful!");
-                }
-            } catch (Exception ex) {
-                out.println("Error in (INFLATE):\n"+ex);
-            }
-            return tmp;
-        } else {
-            return in;
+    private static ByteBuffer inflateIfNeeded(ByteBuffer bb) {
+        if (!Inflate.isWrapped(bb)) return bb;
+        try {
+            return Inflate.inflate(bb);
+        } catch(Exception ex) {
+            out.println("Error in (INFLATE):\n"+ex);
+            throw new IllegalStateException(ex);
         }
     }
 
     // Runs the selected mode (side bonus: removes code duplication)
-    private static void runMode(byte[] ba) {
+    private static void runMode(NORI nf, ByteBuffer bb) {
         switch (mode) {
             case 'e':
-                Extract opte = new Extract(ba, false);
+                Extract opte = new Extract(nf, bb, false);
                 break;
             case 'E':
-                Extract optE = new Extract(ba, true);
+                Extract optE = new Extract(nf, bb, true);
                 break;
             case 'A':
-                Analyze optA = new Analyze(ba, true);
+                Analyze optA = new Analyze(nf, bb, true);
+                break;
+            case 's':
+                Analyzer opts = new Analyzer(bb, nf, true);
                 break;
             default:
-                Analyze opta = new Analyze(ba, false);
+                Analyze opta = new Analyze(nf, bb, false);
                 break;
         }
     }
 
+    // Pulls the --option args out of the way, returns the args that are left
+    private static String[] setOptions(String[] args) {
+        List<String> rest = new ArrayList<>();
+        for (String arg : args) {
+            try {
+                setOption(arg, rest);
+            } catch(NumberFormatException ex) {
+                out.println("Error: Not a number in option: " + arg);
+                badOption = true;
+            }
+        }
+        // Made after all the options, so their order doesn't matter
+        if (cacheDir != null && !badOption)
+            cache = new Cache(new File(cacheDir), cacheMax << 20, cachePayload);
+        return rest.toArray(new String[0]);
+    }
+
+    // Sets one option, or adds arg to rest if it isn't one
+    private static void setOption(String arg, List<String> rest) {
+        if (arg.startsWith("--threads=")) {
+            threads = toInt(arg.substring(10));
+            // 0 or less means use every core the machine has
+            if (threads < 1)
+                threads = Runtime.getRuntime().availableProcessors();
+        } else if (arg.startsWith("--bmp-threads=")) {
+            int n = toInt(arg.substring(14));
+            if (n < 1) n = Runtime.getRuntime().availableProcessors();
+            // One pool for every file, so --threads can't multiply it
+            if (n > 1) Extract.bmpPool = bmpPool(n);
+        } else if (arg.startsWith("--writers=")) {
+            int n = toInt(arg.substring(10));
+            // A few BMP per writer is enough to keep them all busy
+            if (n > 0) JBL.writeQueue = new WriteQueue(n, n * 8);
+        } else if (arg.equals("--zlib")) {
+            Create.zlib = true;
+        } else if (arg.startsWith("--zlib=")) {
+            Create.zlib = true;
+            // Past the ends of 0-9 is the zlib default
+            int n = toInt(arg.substring(7));
+            Deflate.level = (n < 0 || n > 9) ? -1 : n;
+        } else if (arg.startsWith("--zlib-strategy=")) {
+            if (!Deflate.setStrategy(arg.substring(16)))
+                out.println("Warning: Unknown zlib strategy ignored: " + arg);
+        } else if (arg.equals("--bin-cfg")) {
+            Analyze.binCfg = true;
+        } else if (arg.equals("--cache")) {
+            cacheDir = System.getProperty("user.home") + File.separator + ".tnt-cache";
+        } else if (arg.startsWith("--cache=")) {
+            cacheDir = arg.substring(8);
+        } else if (arg.startsWith("--cache-max=")) {
+            cacheMax = toInt(arg.substring(12));
+            if (cacheMax < 0) throw new NumberFormatException("negative");
+        } else if (arg.equals("--cache-payload")) {
+            cachePayload = true;
+        } else if (arg.equals("--dedup")) {
+            JBL.dedup = new Dedup(new File(System.getProperty("user.dir"), ".tnt-store"));
+        } else if (arg.startsWith("--dedup=")) {
+            JBL.dedup = new Dedup(new File(arg.substring(8)));
+        } else if (arg.equals("--incremental")) {
+            Extract.incremental = true;
+        } else if (arg.equals("--recursive")) {
+            recursive = true;
+        } else if (arg.equals("--mmap")) {
+            mmap = true;
+        } else if (arg.startsWith("--")) {
+            out.println("Warning: Unknown option ignored: " + arg);
+        } else {
+            rest.add(arg);
+        }
+    }
+
+    // The pool for --bmp-threads, the last one is reused if it's the same size
+    private static ForkJoinPool bmpPool(int n) {
+        if (bmpPool == null || bmpPool.getParallelism() != n) {
+            if (bmpPool != null) bmpPool.shutdown();
+            bmpPool = new ForkJoinPool(n);
+        }
+        return bmpPool;
+    }
+
+    // An anti-duplication + better readability function. A bad number throws,
+    // so a typo is reported instead of quietly becoming some other value.
+    private static int toInt(String str) {
+        return Integer.parseInt(str.trim());
+    }
+
+    // Checks the daemon's port arg
+    private static boolean portCheck(String str) {
+        try {
+            int port = toInt(str);
+            if (port > 0 && port < 65536) return true;
+        } catch(NumberFormatException ex) {
+            // same message as out of range
+        }
+        out.println("Error: Not a port number: " + str);
+        return false;
+    }
+
     // Determines validity of cmd-line args & returns the resulting case number
     // This exists as a function because it would make main() ugly if it didn't.
     private static boolean argCheck(String[] args) {
@@ -142,17 +382,23 @@ public class Main {
             mode = args[0].charAt(0);
             // This 'if' tree checks for valid mode arg and correct # of args
             // for the given mode. Invokes helpful error messages on failure.
-            if ((mode == 'a'||mode == 'A') && argsLen >=2)
+            if ((mode == 'a'||mode == 'A'||mode == 's') && argsLen >=2)
                 argResult = true;
             else if ((mode =='e'||mode == 'E') && argsLen >=2)
                 argResult = true;
             else if (mode == 'c' && argsLen == 3)
                 argResult = cmArgCheck(args);
-            else if ((mode == 'a'||mode == 'A'))
+            else if (mode == 'x' && argsLen >=2)
+                argResult = xmArgCheck(args);
+            else if (mode == 'd' && Daemon.running)
+                out.println("Error: The daemon is already running");
+            else if (mode == 'd' && argsLen <= 2)
+                argResult = (argsLen == 1) || portCheck(args[1]);
+            else if ((mode == 'a'||mode == 'A'||mode == 's'))
                 argErrors(2);
             else if ((mode == 'e'||mode == 'E'))
                 argErrors(2);
-            else if (mode == 'c')
+            else if (mode == 'c' || mode == 'x' || mode == 'd')
                 argErrors(2);
             else
                 argErrors(1);
@@ -180,6 +426,17 @@ public class Main {
         return result;
     }
 
+    // Verifies the existence of the config files to convert
+    private static boolean xmArgCheck(String[] args) {
+        for (int i=1; i < argsLen; i++) {
+            if (!(new File(args[i])).exists()) {
+                argErrors(4);
+                return false;
+            }
+        }
+        return true;
+    }
+
     // Invalid command-line arguments responses
     private static void argErrors(int argErrorNum) {
         int errNum = argErrorNum;
@@ -218,7 +475,7 @@ public class Main {
 
     // Standard usage output, explaining available modes and required arguments
     private static void usage() {
-        String cr, use, col, bdr, opa, opA, ope, opE, opc, ex;
+        String cr, use, col, bdr, opa, opA, ops, ope, opE, opc, opx, opd, ex, opt;
         cr = "The NORI Tool (TNT)\n"+
              "Copyright (C) 2014-2020 Libre Trickster Team\n"+
              "License: GPLv3+\n\n";
@@ -228,14 +485,37 @@ public class Main {
         bdr="===============================================================\n";
         opa="| a  | [filename(s)]            | Analyze NORI files          |\n";
         opA="| A  | [filename(s)]            | Analyze w/ config output    |\n";
+        ops="| s  | [filename(s)]            | Summarize NORI headers only |\n";
         ope="| e  | [filename(s)]            | Extract NORI files          |\n";
         opE="| E  | [filename(s)]            | Extract w/ img subsets      |\n";
         opc="| c  | [example.cfg] [/imgDir/] | Create NORI file            |\n";
+        opx="| x  | [config file(s)]         | Convert .cfg <-> .ncb       |\n";
+        opd="| d  | [port]                   | Run as a local daemon       |\n";
 
         ex ="Example: java -jar TNT.jar a ../ex/path/ntf/all.nri\n";
 
+        opt="Options (a, A, s, e, E, c):\n"+
+            "  --threads=N      Work on N files at once (0 = all cores)\n"+
+            "  --bmp-threads=N  Decode/load N bitmaps of a file at once (e, E, c)\n"+
+            "  --mmap           Memory-map input files instead of reading them\n"+
+            "  --recursive      Take folders too, for all the NORI files in them\n"+
+            "  --cache[=DIR]    Reuse earlier analysis of unchanged files (a, A, e, E)\n"+
+            "  --cache-max=MB   Size cap of the cache, oldest use goes first (1024)\n"+
+            "  --cache-payload  Also cache the inflated data of zlib files\n"+
+            "  --writers=N      Write BMP on N separate threads (e, E)\n"+
+            "  --incremental    Only extract what changed since the last run (e, E)\n"+
+            "  --dedup[=DIR]    Store each different BMP once, link the rest (e, E)\n"+
+            "  --bin-cfg        Write a binary .ncb config instead (A)\n"+
+            "  --zlib[=L]       Wrap the new file in zlib, level L 0-9 (c)\n"+
+            "  --zlib-strategy=S  default, filtered, or huffman (c)\n\n"+
+            "Daemon (d): jobs are sent to it with the client, on port "+ Daemon.PORT +
+            " (or TNT_PORT),\n"+
+            "as the same user, since they need the token in ~/"+ Daemon.TOKEN_DIR +":\n"+
+            "  java -cp TNT.jar com.github.tricksteronline.Client {mode} {etc}\n"+
+            "  java -cp TNT.jar com.github.tricksteronline.Client --stop\n";
+
         // Actual output function
-        out.println("\n"+cr+use+bdr+col+bdr+opa+opA+ope+opE+opc+bdr+ex);
+        out.println("\n"+cr+use+bdr+col+bdr+opa+opA+ops+ope+opE+opc+opx+opd+bdr+ex+opt);
     }
 }
 
@@ -0,0 +1,178 @@
+package com.github.tricksteronline;/*
+Manifest.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import static java.lang.System.out;
+/**
+Class Description:
+Keeps track of what an extraction directory already has, for incremental
+extraction (--incremental). A NORI file that hasn't changed since it was last
+extracted is skipped without being loaded, and in one that has, only the
+bitmaps that changed get decoded & written again.
+
+Dev Notes:
+The manifest is a small tab separated text file in the extraction directory:
+  TNT-MANIFEST 1
+  source  size  mtime  subsets      (the NORI file, & whether E was used)
+  base    hash                      (bpp, palette & anything else shared)
+  bmp     id  hash  file  size  [file  size ...]
+The hash of a bitmap is over its specs & data for every subset (CRC32 and
+Adler32 together), and it only counts if its BMP files are all still there
+at the same size. It is written last, so an extraction that dies part way
+through leaves the old one, which no longer matches the source.
+
+Development Priority: LOW
+*/
+public class Manifest {
+    // class variables
+    public static final String NAME = ".tnt-manifest", HEAD = "TNT-MANIFEST 1";
+    public int skipped=0;
+    private File file;
+    private String source, oldSource="", base="", oldBase="";
+    private Map<Integer, Entry> old = new HashMap<>();
+    private Map<Integer, Entry> now = new ConcurrentHashMap<>();
+
+    // One bitmap: its hash & the BMP files made from it
+    private static class Entry {
+        String hash;
+        List<String> names = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+
+        // Every BMP file is still there, at the size it was written
+        boolean onDisk(String dir) {
+            for (int i = 0; i < names.size(); i++) {
+                if (new File(dir + names.get(i)).length() != sizes.get(i))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    // constructor for Manifest class
+    public Manifest(NORI nf, boolean subsets) {
+        file = new File(nf.exdir + NAME);
+        source = "source\t" + nf.nf.length() + "\t" + nf.nf.lastModified()
+            + "\t" + (subsets ? 1 : 0);
+        load();
+    }
+
+    // The whole file can be skipped: same source & every BMP still there
+    public static boolean upToDate(NORI nf, boolean subsets) {
+        Manifest m = new Manifest(nf, subsets);
+        if (!m.source.equals(m.oldSource) || m.old.isEmpty()) return false;
+        for (Entry e : m.old.values()) {
+            if (!e.onDisk(nf.exdir)) return false;
+        }
+        return true;
+    }
+
+    // What all of the bitmaps depend on, old entries only count if it matches
+    public void setBase(long hash) {
+        base = Long.toHexString(hash);
+    }
+
+    // Bitmap id is already on disk as it would be made from data with hash
+    public boolean upToDate(int id, long hash, String dir) {
+        Entry e = old.get(id);
+        if (e == null || !base.equals(oldBase) || !e.hash.equals(Long.toHexString(hash))
+                || !e.onDisk(dir)) {
+            return false;
+        }
+        now.put(id, e);
+        synchronized (this) {
+            skipped++;
+        }
+        return true;
+    }
+
+    // Records a BMP file made from bitmap id
+    public void add(int id, long hash, String name, long size) {
+        Entry e = now.computeIfAbsent(id, x -> new Entry());
+        synchronized (e) {
+            String h = Long.toHexString(hash);
+            // A new hash means an old record from before this run
+            if (!h.equals(e.hash)) {
+                e.hash = h;
+                e.names.clear();
+                e.sizes.clear();
+            }
+            int i = e.names.indexOf(name);
+            if (i >= 0) {
+                e.sizes.set(i, size);
+            } else {
+                e.names.add(name);
+                e.sizes.add(size);
+            }
+        }
+    }
+
+    // Writes the manifest for this run, through a temp file
+    public void save() {
+        List<Integer> ids = new ArrayList<>(now.keySet());
+        Collections.sort(ids);
+        StringBuilder sb = new StringBuilder(HEAD).append('\n');
+        sb.append(source).append('\n');
+        sb.append("base\t").append(base).append('\n');
+        for (int id : ids) {
+            Entry e = now.get(id);
+            sb.append("bmp\t").append(id).append('\t').append(e.hash);
+            for (int i = 0; i < e.names.size(); i++) {
+                sb.append('\t').append(e.names.get(i)).append('\t').append(e.sizes.get(i));
+            }
+            sb.append('\n');
+        }
+        try {
+            Path tmp = new File(file.getPath() + ".tmp").toPath();
+            Files.write(tmp, sb.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException ex) {
+            out.println("Error in (MANIFEST):\n"+ex);
+        }
+    }
+
+    // Reads the last run's manifest, if there is a good one
+    private void load() {
+        if (!file.isFile()) return;
+        try {
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !lines.get(0).equals(HEAD)) return;
+            for (String line : lines.subList(1, lines.size())) {
+                String[] f = line.split("\t");
+                if (f[0].equals("source")) {
+                    oldSource = line;
+                } else if (f[0].equals("base") && f.length == 2) {
+                    oldBase = f[1];
+                } else if (f[0].equals("bmp") && f.length >= 3 && f.length % 2 == 1) {
+                    Entry e = new Entry();
+                    e.hash = f[2];
+                    for (int i = 3; i < f.length; i += 2) {
+                        e.names.add(f[i]);
+                        e.sizes.add(Long.parseLong(f[i + 1]));
+                    }
+                    old.put(Integer.parseInt(f[1]), e);
+                }
+            }
+        } catch(Exception ex) {
+            // A bad manifest is the same as none, everything gets extracted
+            out.println("Error in (MANIFEST):\n"+ex);
+            oldSource = "";
+            old.clear();
+        }
+    }
+}
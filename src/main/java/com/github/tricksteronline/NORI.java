@@ -21,78 +21,100 @@ A structure-like class for storing a NORI file's data neatly.
 
 Dev Notes:
 Since this class is essentially a structure, I'm going to attempt to keep it as
-simple and clean as possible.
+simple and clean as possible. Each file being worked on gets its own NORI
+object, so nothing about one file can leak into another running alongside it.
 
 Development Priority: HIGH
 */
 public class NORI
 {
     // class variables
-    public static File nf;
-    public static String name,dname,dir,exdir,fs=File.separator;
+    public static String fs=File.separator;
+    public File nf;
+    public String name,dname,dir,exdir;
     // special NORI variables
-    public static int fsig = 0;
-    public static int noriVer = 0;
-    public static int nParam1 = 0;
-    public static int nParam2 = 0;
-    public static int nParam3 = 0;
-    public static int nParam4 = 0;
-    public static int nParam5 = 0;
-    public static int anims = 0;
-    public static int woGawi = 0;
-    public static int fsize = 0;
+    public int fsig = 0;
+    public int noriVer = 0;
+    public int nParam1 = 0;
+    public int nParam2 = 0;
+    public int nParam3 = 0;
+    public int nParam4 = 0;
+    public int nParam5 = 0;
+    public int anims = 0;
+    public int woGawi = 0;
+    public int fsize = 0;
     // special GAWI variables
-    public static int gsig = 0;
-    public static int gawiVer = 0;
-    public static int bpp = 0;
-    public static int compressed = 0;
-    public static int hasPalette = 0;
-    public static int gParam4 = 0;
-    public static int gParam5 = 0;
-    public static int gParam6 = 0;
-    public static int gParam7 = 0;
-    public static int numBMP = 0;
-    public static int gsize = 0;
+    public int gsig = 0;
+    public int gawiVer = 0;
+    public int bpp = 0;
+    public int compressed = 0;
+    public int hasPalette = 0;
+    public int gParam4 = 0;
+    public int gParam5 = 0;
+    public int gParam6 = 0;
+    public int gParam7 = 0;
+    public int numBMP = 0;
+    public int gsize = 0;
     // special palette variables
-    public static int psig = 0;
-    public static int palVer = 0;
-    public static int pParam1 = 0;
-    public static int pParam2 = 0;
-    public static int pParam3 = 0;
-    public static int pParam4 = 0;
-    public static int divided = 0;
-    public static int psize = 0;
-    public static byte[] pb;
-    public static byte[][] palette;
-    public static int mainS = 111;
-    public static int mainE = 254;
+    public int psig = 0;
+    public int palVer = 0;
+    public int pParam1 = 0;
+    public int pParam2 = 0;
+    public int pParam3 = 0;
+    public int pParam4 = 0;
+    public int divided = 0;
+    public int psize = 0;
+    public byte[] pb;
+    public byte[][] palette;
+    public int[] pal24;
+    public int mainS = 111;
+    public int mainE = 254;
     // special BMP data variables
-    public static int[] bmpOffsets;
-    public static int bpos = 0;
-    public static int[][] bmpSpecs;
-    public static byte[] bmpData;
+    public int[] bmpOffsets;
+    public int bpos = 0;
+    public int[][] bmpSpecs;
+    public byte[] bmpData;
     // special animation variables
-    public static int[] animOffsets;
-    public static int apos = 0;
-    public static String[] animName;
-    public static int[] frames;
-    public static int[][] frameOffsets;
-    public static int[][][] frameData;
-    public static int[][][][] planeData;
-    public static int xtraFrameBytes = 0;
-    public static byte[] xfb;
+    public int[] animOffsets;
+    public int apos = 0;
+    public String[] animName;
+    public int[] frames;
+    // The frame & plane tables are flat, sized to exactly what the file has.
+    // Animation a's frames are numbered from animFrame[a] on, and frame g's
+    // planes from framePlane[g] on. Per frame: 1 int in frameOffsets & 2 in
+    // frameData (delay, planes). Per plane: 7 ints in planeData.
+    public int[] animFrame;
+    public int[] frameOffsets;
+    public int[] frameData;
+    public int[] framePlane;
+    public int[] planeData;
+    public int xtraFrameBytes = 0;
+    public byte[] xfb;
+    // set once everything above is filled in (by Analyzer or the Cache)
+    public boolean analyzed = false;
 
     // constructor for NORI class
     public NORI() {}
 
-    public static void setNFileVars(File nf, int src) {
+    // Number of frame f of animation a, in the flat frame tables
+    public int frame(int a, int f) {
+        return animFrame[a] + f;
+    }
+
+    // Where plane p of frame f of animation a starts in planeData
+    public int plane(int a, int f, int p) {
+        return (framePlane[frame(a, f)] + p) * 7;
+    }
+
+    public void setNFileVars(File nf, int src) {
+        this.nf = nf;
         name = nf.getName();// Plain file name
         // Using cfg file, which is the same name & dir, just 4 extra characters
         if (src != 0) {
             name = name.substring(0, name.length() - 4);
             if (!(name.endsWith(".bac") || name.endsWith(".nri"))) {
                 out.println("Error: Config file named incorrectly!");
-                System.exit(1);
+                throw new IllegalStateException("Bad config name: " + nf.getName());
             }
         }
         dname = name.replace('.','_');// Name without dots (useful)
@@ -100,7 +122,7 @@ public class NORI
         exdir = dir + dname + fs;// Extraction directory (where bmp go)
     }
 
-    public static void checkDir() {
+    public void checkDir() {
         if (dir.equals("null"+fs)) {
             dir=System.getProperty("user.dir")+fs;
         }
@@ -0,0 +1,115 @@
+package com.github.tricksteronline;/*
+WriteQueue.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import static java.lang.System.out;
+/**
+Class Description:
+The WriteQueue class takes finished files (the extracted BMP) off the hands of
+the threads that made them, and has its own threads write them to disk. That
+way decoding the next bitmap doesn't have to wait on a slow disk.
+
+Dev Notes:
+The queue only holds so many files. Once it's full, write() waits for room, so
+a fast decoder can't fill up the memory with bitmaps a slow disk hasn't taken
+yet. Write errors can't be reported to whoever queued the file (they've moved
+on), so they are collected and reported by finish(), which must be called once
+everything has been queued.
+
+Development Priority: MEDIUM
+*/
+public class WriteQueue {
+    // class variables
+    public int written=0;
+    private final BlockingQueue<Job> queue;
+    private final List<Thread> writers = new ArrayList<>();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private static final Job DONE = new Job(null, null);
+
+    // A file waiting to be written
+    private static class Job {
+        final Path path;
+        final byte[] data;
+
+        Job(Path p, byte[] d) {
+            path = p;
+            data = d;
+        }
+    }
+
+    // constructor for WriteQueue class
+    public WriteQueue(int threads, int capacity) {
+        queue = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(this::writeLoop, "TNT-writer-" + i);
+            t.setDaemon(true);
+            t.start();
+            writers.add(t);
+        }
+    }
+
+    // Queue a file to be written, waits if the queue is full
+    public void write(Path path, byte[] data) {
+        try {
+            queue.put(new Job(path, data));
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted queueing " + path, ex);
+        }
+    }
+
+    // Wait for everything queued to be written, then report any errors.
+    // Returns the number of files that could not be written.
+    public int finish() {
+        try {
+            for (int i = 0; i < writers.size(); i++) queue.put(DONE);
+            for (Thread t : writers) t.join();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (!errors.isEmpty()) {
+            out.println("Write errors: " + errors.size());
+            for (String err : errors) {
+                out.println(err);
+            }
+        }
+        return errors.size();
+    }
+
+    // What each writer thread does until told it's done
+    private void writeLoop() {
+        while (true) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch(InterruptedException ex) {
+                return;
+            }
+            if (job == DONE) return;
+            try {
+                Dedup.unshare(job.path);
+                Files.write(job.path, job.data);
+                synchronized (this) {
+                    written++;
+                }
+            } catch(Exception ex) {
+                errors.add("Error in (WriteQueue): " + job.path + "\n" + ex);
+            }
+        }
+    }
+}
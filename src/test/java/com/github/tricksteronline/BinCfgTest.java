@@ -0,0 +1,106 @@
+package com.github.tricksteronline;/*
+BinCfgTest.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+Class Description:
+Tests for the binary config (.ncb).
+
+Development Priority: LOW
+*/
+class BinCfgTest {
+    @TempDir
+    File dir;
+
+    @Test
+    void readsBackWhatWasAnalyzed() throws IOException {
+        File nri = TestData.write(dir, "b.nri", Synth.nori(8, true, 7, 3));
+        NORI nf = TestData.analyze(nri);
+        Analyze.writeConfig(nf, true);
+        File ncb = new File(dir, "b.nri" + BinCfg.EXT);
+        assertTrue(BinCfg.isBinCfg(ncb));
+        NORI back = Create.readConfig(ncb);
+        assertEquals(nf.fsize, back.fsize);
+        assertEquals(nf.gsize, back.gsize);
+        assertEquals(nf.bpos, back.bpos);
+        assertEquals(nf.apos, back.apos);
+        assertArrayEquals(nf.pb, back.pb);
+        assertArrayEquals(nf.xfb, back.xfb);
+        assertArrayEquals(Arrays.copyOf(nf.bmpOffsets, nf.numBMP), back.bmpOffsets);
+        assertArrayEquals(nf.bmpSpecs, back.bmpSpecs);
+        assertArrayEquals(Synth.NAMES, back.animName);
+        assertArrayEquals(nf.animFrame, back.animFrame);
+        assertArrayEquals(nf.framePlane, back.framePlane);
+        assertArrayEquals(nf.frameData, back.frameData);
+        assertArrayEquals(nf.planeData, back.planeData);
+        assertArrayEquals(BinCfg.toBytes(nf), BinCfg.toBytes(back));
+    }
+
+    @Test
+    void convertsToXmlAndBack() throws IOException {
+        File nri = TestData.write(dir, "v.nri", Synth.nori(16, false, 5, 2));
+        NORI nf = TestData.analyze(nri);
+        Analyze.writeConfig(nf, true);
+        File ncb = new File(dir, "v.nri" + BinCfg.EXT);
+        byte[] first = BinCfg.toBytes(Create.readConfig(ncb));
+        BinCfg.convert(ncb);
+        File cfg = new File(dir, "v.nri.cfg");
+        assertTrue(cfg.isFile());
+        assertTrue(ncb.delete());
+        BinCfg.convert(cfg);
+        assertArrayEquals(first, BinCfg.toBytes(Create.readConfig(ncb)));
+    }
+
+    @Test
+    void rejectsOtherFiles() {
+        NORI nf = new NORI();
+        ByteBuffer notCfg = ByteBuffer.wrap(Synth.nori(24, false, 1, 1));
+        IllegalStateException ex = assertThrows(IllegalStateException.class,
+            () -> BinCfg.fromBytes(notCfg, nf, "x"));
+        assertTrue(ex.getMessage().startsWith("Not a binary config"));
+
+        ByteBuffer newer = Synth.le(8).putInt(BinCfg.MAGIC).putInt(BinCfg.VERSION + 1);
+        ((Buffer) newer).flip();
+        ex = assertThrows(IllegalStateException.class, () -> BinCfg.fromBytes(newer, nf, "x"));
+        assertTrue(ex.getMessage().startsWith("Unknown binary config version"));
+    }
+
+    @Test
+    void rejectsTruncatedConfigs() throws IOException {
+        File nri = TestData.write(dir, "t.nri", Synth.nori(24, true, 4, 2));
+        byte[] full = BinCfg.toBytes(TestData.analyze(nri));
+        // every cut has to fail cleanly, never read garbage counts
+        for (int len = 8; len < full.length; len += 13) {
+            ByteBuffer cut = ByteBuffer.wrap(Arrays.copyOf(full, len));
+            assertThrows(RuntimeException.class,
+                () -> BinCfg.fromBytes(cut, new NORI(), "cut"), "cut at " + len);
+        }
+    }
+
+    @Test
+    void rejectsCountsThatDontAddUp() throws IOException {
+        File nri = TestData.write(dir, "n.nri", Synth.nori(16, false, 3, 2));
+        NORI nf = TestData.analyze(nri);
+        // one frame too many for what the animations say they have
+        nf.frames[0]++;
+        ByteBuffer bad = ByteBuffer.wrap(BinCfg.toBytes(nf));
+        assertThrows(RuntimeException.class, () -> BinCfg.fromBytes(bad, new NORI(), "bad"));
+    }
+}
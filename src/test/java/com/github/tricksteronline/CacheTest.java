@@ -0,0 +1,206 @@
+package com.github.tricksteronline;/*
+CacheTest.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+Class Description:
+Tests for the analysis cache, on disk & in memory, and its Main options.
+
+Development Priority: LOW
+*/
+class CacheTest {
+    @TempDir
+    File dir;
+
+    @Test
+    void modelSurvivesARestart() throws IOException {
+        File cacheDir = new File(dir, "cache");
+        File nri = TestData.write(dir, "m.nri", Synth.nori(8, true, 6, 3));
+        NORI nf = TestData.analyze(nri);
+        Cache cache = new Cache(cacheDir, 1 << 20, false);
+        Cache.Key k = cache.key(nri, load(nri));
+        assertFalse(k.model);
+        cache.store(k, nf, null);
+
+        // A new Cache only has what is on disk to go by
+        cache = new Cache(cacheDir, 1 << 20, false);
+        k = cache.key(nri, load(nri));
+        assertTrue(k.model);
+        assertFalse(k.payload);
+        NORI back = new NORI();
+        back.setNFileVars(nri, 0);
+        assertTrue(cache.model(k, back));
+        assertTrue(back.analyzed);
+        assertArrayEquals(BinCfg.toBytes(nf), BinCfg.toBytes(back));
+        assertArrayEquals(nf.bmpOffsets, back.bmpOffsets);
+        assertArrayEquals(nf.animOffsets, back.animOffsets);
+        assertArrayEquals(nf.palette, back.palette);
+        assertArrayEquals(nf.pal24, back.pal24);
+    }
+
+    @Test
+    void changedFileMissesTheCache() throws IOException {
+        File nri = TestData.write(dir, "c.nri", Synth.nori(16, false, 4, 1));
+        Cache cache = new Cache(new File(dir, "cache"), 1 << 20, false);
+        Cache.Key k = cache.key(nri, load(nri));
+        cache.store(k, TestData.analyze(nri), null);
+        assertTrue(cache.key(nri, load(nri)).model);
+
+        // Same size & time, only the bytes are different
+        long mtime = nri.lastModified();
+        byte[] changed = Synth.nori(16, false, 4, 1);
+        changed[changed.length - 1] ^= 1;
+        Files.write(nri.toPath(), changed);
+        assertTrue(nri.setLastModified(mtime));
+        assertFalse(cache.key(nri, load(nri)).model);
+    }
+
+    @Test
+    void keepsPayloadsOnlyWhenAsked() throws IOException {
+        byte[] nori = Synth.nori(24, true, 5, 2);
+        File bac = TestData.write(dir, "p.bac", Synth.bac(nori, 6));
+        ByteBuffer inflated = ByteBuffer.wrap(nori).order(ByteOrder.LITTLE_ENDIAN);
+        NORI nf = TestData.analyze(TestData.write(dir, "p.nri", nori));
+
+        Cache without = new Cache(new File(dir, "a"), 1 << 20, false);
+        Cache.Key k = without.key(bac, load(bac));
+        without.store(k, nf, inflated);
+        assertFalse(without.key(bac, load(bac)).payload);
+
+        Cache with = new Cache(new File(dir, "b"), 1 << 20, true);
+        k = with.key(bac, load(bac));
+        with.store(k, nf, inflated);
+        k = with.key(bac, load(bac));
+        assertTrue(k.payload);
+        ByteBuffer back = with.payload(k);
+        assertEquals(ByteOrder.LITTLE_ENDIAN, back.order());
+        assertEquals(inflated, back);
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsed() throws IOException {
+        File cacheDir = new File(dir, "cache");
+        Cache cache = new Cache(cacheDir, Long.MAX_VALUE, false);
+        File[] files = new File[5];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = TestData.write(dir, "e" + i + ".nri", Synth.nori(16, false, 3, 1));
+        }
+        for (int i = 0; i < 4; i++) {
+            cache.store(cache.key(files[i], load(files[i])), TestData.analyze(files[i]), null);
+        }
+        long each = cache.bytes / 4;
+        // Use the first one again, so the second is now the oldest
+        assertTrue(cache.model(cache.key(files[0], load(files[0])), new NORI()));
+
+        cache.maxBytes = each * 3;
+        cache.store(cache.key(files[4], load(files[4])), TestData.analyze(files[4]), null);
+        assertEquals(each * 3, cache.bytes);
+        assertEquals(3, cacheDir.list().length);
+        boolean[] kept = {true, false, false, true, true};
+        for (int i = 0; i < files.length; i++) {
+            assertEquals(kept[i], cache.key(files[i], load(files[i])).model, "e" + i);
+        }
+    }
+
+    @Test
+    void orderCarriesOverFromFileTimes() throws IOException {
+        File cacheDir = new File(dir, "cache");
+        Cache cache = new Cache(cacheDir, Long.MAX_VALUE, false);
+        File[] files = new File[3];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = TestData.write(dir, "o" + i + ".nri", Synth.nori(16, false, 3, 1));
+            cache.store(cache.key(files[i], load(files[i])), TestData.analyze(files[i]), null);
+        }
+        // The middle one was used last, the last one before everything else
+        long now = System.currentTimeMillis();
+        long[] used = {now - 20000, now, now - 30000};
+        for (int i = 0; i < files.length; i++) {
+            String name = cache.key(files[i], load(files[i])).name;
+            File entry = new File(cacheDir, name + Cache.MODEL);
+            assertTrue(entry.setLastModified(used[i]));
+        }
+        long each = cache.bytes / 3;
+        cache = new Cache(cacheDir, each, false);
+        assertEquals(each, cache.bytes);
+        assertFalse(cache.key(files[0], load(files[0])).model);
+        assertTrue(cache.key(files[1], load(files[1])).model);
+        assertFalse(cache.key(files[2], load(files[2])).model);
+    }
+
+    @Test
+    void badEntryIsAMissNotAnError() throws IOException {
+        File cacheDir = new File(dir, "cache");
+        File nri = TestData.write(dir, "b.nri", Synth.nori(16, true, 3, 1));
+        Cache cache = new Cache(cacheDir, 1 << 20, false);
+        cache.store(cache.key(nri, load(nri)), TestData.analyze(nri), null);
+        // Keep the key, break what comes after it
+        File entry = cacheDir.listFiles()[0];
+        byte[] bytes = Files.readAllBytes(entry.toPath());
+        for (int i = bytes.length - 40; i < bytes.length; i++) bytes[i] = (byte)0xFF;
+        Files.write(entry.toPath(), bytes);
+
+        Cache.Key k = cache.key(nri, load(nri));
+        assertTrue(k.model);
+        assertFalse(cache.model(k, new NORI()));
+        assertFalse(k.model);
+    }
+
+    @Test
+    void memoryOnlyCacheWritesNothing() throws IOException {
+        File nri = TestData.write(dir, "mem.nri", Synth.nori(8, false, 4, 2));
+        NORI nf = TestData.analyze(nri);
+        Cache cache = new Cache(null, 1 << 20, true);
+        Cache.Key k = cache.key(nri, load(nri));
+        cache.store(k, nf, ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        k = cache.key(nri, load(nri));
+        assertTrue(k.model);
+        assertTrue(k.payload);
+        NORI back = new NORI();
+        back.setNFileVars(nri, 0);
+        assertTrue(cache.model(k, back));
+        assertArrayEquals(BinCfg.toBytes(nf), BinCfg.toBytes(back));
+        assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 3}), cache.payload(k));
+        assertArrayEquals(new String[]{"mem.nri"}, dir.list());
+
+        // Over the cap, everything goes, the newest too
+        cache.maxBytes = 0;
+        File other = TestData.write(dir, "other.nri", Synth.nori(16, false, 2, 1));
+        cache.store(cache.key(other, load(other)), TestData.analyze(other), null);
+        assertEquals(0, cache.bytes);
+        assertFalse(cache.key(nri, load(nri)).model);
+        assertFalse(cache.key(other, load(other)).model);
+    }
+
+    @Test
+    void badCacheMaxIsAnError() throws IOException {
+        File nri = TestData.write(dir, "o.nri", Synth.nori(16, false, 2, 1));
+        File cacheDir = new File(dir, "cache");
+        for (String opt : new String[]{"--cache-max=10G", "--cache-max=-1"}) {
+            String log = TestData.tnt("a", "--cache=" + cacheDir, opt, nri.getPath());
+            assertTrue(log.contains("Error: Not a number in option: " + opt), log);
+            assertFalse(log.contains("Filename:"), log);
+            assertFalse(cacheDir.exists());
+        }
+    }
+
+    private static ByteBuffer load(File f) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(f.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
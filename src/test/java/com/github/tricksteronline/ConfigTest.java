@@ -0,0 +1,82 @@
+package com.github.tricksteronline;/*
+ConfigTest.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+Class Description:
+Tests for the xml config, written by Analyze & read back by Create.
+
+Dev Notes:
+Both sides are compared through BinCfg.toBytes, which has every config field
+in it, so a field that gets lost or moved on the way shows up as a mismatch.
+
+Development Priority: LOW
+*/
+class ConfigTest {
+    @TempDir
+    File dir;
+
+    @Test
+    void roundTripsEveryField() throws IOException {
+        for (int bpp : new int[]{8, 16, 24}) {
+            for (boolean rle : new boolean[]{false, true}) {
+                String name = "t" + bpp + (rle ? "c" : "u") + ".nri";
+                File nri = TestData.write(dir, name, Synth.nori(bpp, rle, 9, 3));
+                NORI nf = TestData.analyze(nri);
+                Analyze.writeConfig(nf, false);
+                NORI back = Create.readConfig(new File(dir, name + ".cfg"));
+                assertArrayEquals(BinCfg.toBytes(nf), BinCfg.toBytes(back), name);
+            }
+        }
+    }
+
+    @Test
+    void keepsNonAsciiAnimationNames() throws IOException {
+        File nri = TestData.write(dir, "names.nri", Synth.nori(16, false, 4, 3));
+        NORI nf = TestData.analyze(nri);
+        Analyze.writeConfig(nf, false);
+        NORI back = Create.readConfig(new File(dir, "names.nri.cfg"));
+        assertArrayEquals(Synth.NAMES, back.animName);
+    }
+
+    @Test
+    void writesIndentedXml() throws IOException {
+        File nri = TestData.write(dir, "x.nri", Synth.nori(24, false, 2, 1));
+        Analyze.writeConfig(TestData.analyze(nri), false);
+        String xml = new String(Files.readAllBytes(new File(dir, "x.nri.cfg").toPath()),
+            StandardCharsets.UTF_8);
+        assertTrue(xml.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>"));
+        assertTrue(xml.contains(System.lineSeparator() + "  <NORI_HDR>"));
+        assertTrue(xml.contains("<bmpOffset id=\"1\">"));
+        assertTrue(xml.contains("<RGB24DATA/>"));
+    }
+
+    @Test
+    void ignoresExternalEntities() throws IOException {
+        File secret = TestData.write(dir, "secret.txt", "1234".getBytes(StandardCharsets.UTF_8));
+        String xml = "<?xml version=\"1.0\"?>\n"
+            + "<!DOCTYPE NORI [<!ENTITY x SYSTEM \"" + secret.toURI() + "\">]>\n"
+            + "<NORI name=\"e.nri\"><NORI_HDR><anims>&x;</anims></NORI_HDR></NORI>\n";
+        File cfg = TestData.write(dir, "e.nri.cfg", xml.getBytes(StandardCharsets.UTF_8));
+        TestData.write(dir, "xfb0.bin", new byte[0]);
+        NORI nf = Create.readConfig(cfg);
+        assertNotEquals(1234, nf.anims);
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.tricksteronline;/*
+CreateTest.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+Class Description:
+Tests for the whole round trip: extract a NORI file & its config, then make it
+again from those with Create.
+
+Development Priority: LOW
+*/
+class CreateTest {
+    @TempDir
+    File dir;
+
+    @Test
+    void remakesTheSameFile() throws IOException {
+        // Not 16-bit, the test pixels use the top bit RGB555 BMP don't keep
+        for (int bpp : new int[]{8, 24}) {
+            for (boolean rle : new boolean[]{false, true}) {
+                String name = "r" + bpp + (rle ? "c" : "u") + ".nri";
+                byte[] nori = original(bpp, rle);
+                byte[] back = roundTrip(name, nori);
+                assertEquals(nori.length, back.length, name);
+                // Up to the animations, which only keep one frame's xfb
+                int end = 40 + ByteBuffer.wrap(nori).order(ByteOrder.LITTLE_ENDIAN).getInt(80);
+                assertArrayEquals(Arrays.copyOf(nori, end), Arrays.copyOf(back, end), name);
+            }
+        }
+    }
+
+    @Test
+    void colorNotInThePaletteIsAnError() throws IOException {
+        byte[] nori = original(8, true);
+        File nri = TestData.write(dir, "p.nri", nori);
+        TestData.tnt("e", nri.getPath());
+        TestData.tnt("A", nri.getPath());
+        // A pixel no palette index makes (the 2nd palette entry, changed)
+        File bmp = new File(dir, "p_nri").listFiles()[0];
+        ByteBuffer bb = ByteBuffer.wrap(Files.readAllBytes(bmp.toPath()))
+            .order(ByteOrder.LITTLE_ENDIAN);
+        int pos = bb.getInt(10);
+        for (int i = 0; i < 3; i++) bb.put(pos + i, (byte)(nori[119 + i] ^ 0x55));
+        Files.write(bmp.toPath(), bb.array());
+        String log = TestData.tnt("c", nri.getPath() + ".cfg", dir + File.separator + "p_nri"
+            + File.separator);
+        assertTrue(log.contains("has a color not in the palette"), log);
+    }
+
+    // A test file, with the palette bg already magenta like Extract makes it
+    private static byte[] original(int bpp, boolean rle) {
+        byte[] nori = Synth.nori(bpp, rle, 7, 2);
+        if (bpp == 8) {
+            // after the NORI & GAWI headers, & the palette's own
+            nori[116] = (byte)255;
+            nori[117] = 0;
+            nori[118] = (byte)255;
+        }
+        return nori;
+    }
+
+    // Extracts the BMP & the config, then makes the file again from them
+    private byte[] roundTrip(String name, byte[] nori) throws IOException {
+        File nri = TestData.write(dir, name, nori);
+        TestData.tnt("e", nri.getPath());
+        TestData.tnt("A", nri.getPath());
+        assertTrue(nri.delete());
+        String bmpDir = dir + File.separator + name.replace('.', '_') + File.separator;
+        String log = TestData.tnt("c", nri.getPath() + ".cfg", bmpDir);
+        assertFalse(log.contains("Error"), log);
+        return Files.readAllBytes(nri.toPath());
+    }
+}
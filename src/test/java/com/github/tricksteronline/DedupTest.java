@@ -0,0 +1,191 @@
+package com.github.tricksteronline;/*
+DedupTest.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+Class Description:
+Tests for the content-addressed BMP store (--dedup).
+
+Development Priority: LOW
+*/
+class DedupTest {
+    @TempDir
+    File dir;
+
+    @Test
+    void storesEachBmpOnce() throws Exception {
+        Dedup dd = new Dedup(new File(dir, "store"));
+        Path a = out("a.bmp"), b = out("b.bmp"), c = out("c.bmp");
+        dd.write(a, buf("header"), buf("pixels"));
+        dd.write(b, buf("headerpixels"));
+        dd.write(c, buf("other"));
+        dd.finish();
+        assertEquals("headerpixels", read(a));
+        assertEquals("headerpixels", read(b));
+        assertEquals("other", read(c));
+        assertEquals(2, dd.unique.get());
+        assertEquals(1, dd.dupes.get());
+        assertEquals(12, dd.saved.get());
+        List<Path> objs = storeFiles();
+        assertEquals(2, objs.size());
+        // Named by the SHA-256 of the bytes, under its first 2 hex digits
+        String other = sha256("other");
+        Path obj = objs.stream().filter(p -> p.toString().endsWith(other + ".bmp")).findFirst().get();
+        assertEquals(other.substring(0, 2), obj.getParent().getFileName().toString());
+        assertFalse(Files.exists(dir.toPath().resolve(Dedup.REFS)));
+    }
+
+    @Test
+    void onlyOneThreadStoresEachBmp() throws Exception {
+        Dedup dd = new Dedup(new File(dir, "store"));
+        // big enough that storing it takes a while
+        byte[] px = new byte[4 << 20];
+        new Random(1).nextBytes(px);
+        int n = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(n);
+        CountDownLatch go = new CountDownLatch(1);
+        try {
+            List<Future<?>> jobs = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                Path p = out(i + ".bmp");
+                jobs.add(pool.submit(() -> {
+                    go.await();
+                    dd.write(p, buf("header"), ByteBuffer.wrap(px));
+                    return null;
+                }));
+            }
+            go.countDown();
+            for (Future<?> f : jobs) f.get();
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(1, dd.unique.get());
+        assertEquals(6 + px.length, dd.stored.get());
+        assertEquals(n - 1, dd.dupes.get());
+        assertEquals((n - 1) * (6 + px.length), dd.saved.get());
+        assertEquals(1, storeFiles().size());
+        for (int i = 0; i < n; i++) assertEquals(6 + px.length, Files.size(out(i + ".bmp")));
+    }
+
+    @Test
+    void extractedBmpStayWritable() throws Exception {
+        Dedup dd = new Dedup(new File(dir, "store"));
+        Path a = out("a.bmp"), b = out("b.bmp");
+        dd.write(a, buf("same"));
+        dd.write(b, buf("same"));
+        assertTrue(Files.isWritable(a));
+        for (Path obj : storeFiles()) assertTrue(Files.isWritable(obj));
+
+        // Writing over a link the way JBL does leaves the other copies alone
+        Dedup.unshare(a);
+        Files.write(a, "changed".getBytes(StandardCharsets.UTF_8));
+        assertEquals("changed", read(a));
+        assertEquals("same", read(b));
+        assertEquals("same", read(storeFiles().get(0)));
+    }
+
+    @Test
+    void refsAreRewrittenNotAppended() throws Exception {
+        Path a = out("a.bmp"), b = out("b.bmp");
+        for (int run = 0; run < 3; run++) {
+            Dedup dd = new Dedup(new File(dir, "store"));
+            dd.hardLinks = false;
+            dd.write(a, buf("one"));
+            dd.write(b, buf("two"));
+            dd.finish();
+        }
+        assertFalse(Files.exists(a));
+        assertEquals(Arrays.asList("a.bmp\t" + sha256("one"), "b.bmp\t" + sha256("two")),
+            Files.readAllLines(dir.toPath().resolve(Dedup.REFS), StandardCharsets.UTF_8));
+
+        // A run that can link takes them back out
+        Dedup dd = new Dedup(new File(dir, "store"));
+        dd.write(a, buf("one"));
+        dd.finish();
+        assertEquals(Arrays.asList("b.bmp\t" + sha256("two")),
+            Files.readAllLines(dir.toPath().resolve(Dedup.REFS), StandardCharsets.UTF_8));
+        dd = new Dedup(new File(dir, "store"));
+        dd.write(b, buf("two"));
+        dd.finish();
+        assertFalse(Files.exists(dir.toPath().resolve(Dedup.REFS)));
+    }
+
+    @Test
+    void extractingAgainWithoutDedupWorks() throws Exception {
+        byte[] nori = Synth.nori(24, true, 4, 1);
+        File a = TestData.write(dir, "a.nri", nori), b = TestData.write(dir, "b.nri", nori);
+        String store = new File(dir, "store").getPath();
+        String log = TestData.tnt("e", "--dedup=" + store, a.getPath(), b.getPath());
+        assertTrue(log.contains("Dedup: 4 unique BMP"), log);
+        Map<Path, byte[]> before = contents(storeFiles());
+
+        // Without --dedup, & with the write queue, the BMP are written again
+        for (String[] args : new String[][]{{"e", a.getPath()}, {"e", "--writers=2", b.getPath()}}) {
+            log = TestData.tnt(args);
+            assertFalse(log.contains("Error"), log);
+        }
+        assertEquals(4, new File(dir, "a_nri").list().length);
+        for (Map.Entry<Path, byte[]> e : before.entrySet()) {
+            assertArrayEquals(e.getValue(), Files.readAllBytes(e.getKey()));
+            assertTrue(e.getKey().toString().endsWith(sha256(e.getValue()) + ".bmp"));
+        }
+    }
+
+    private Path out(String name) {
+        return dir.toPath().resolve(name);
+    }
+
+    private List<Path> storeFiles() throws IOException {
+        try (Stream<Path> s = Files.walk(dir.toPath().resolve("store"))) {
+            return s.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static Map<Path, byte[]> contents(List<Path> files) throws IOException {
+        Map<Path, byte[]> m = new HashMap<>();
+        for (Path p : files) m.put(p, Files.readAllBytes(p));
+        return m;
+    }
+
+    private static ByteBuffer buf(String str) {
+        return ByteBuffer.wrap(str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path p) throws IOException {
+        return new String(Files.readAllBytes(p), StandardCharsets.UTF_8);
+    }
+
+    private static String sha256(String str) throws Exception {
+        return sha256(str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
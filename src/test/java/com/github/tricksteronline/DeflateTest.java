@@ -0,0 +1,119 @@
+package com.github.tricksteronline;/*
+DeflateTest.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.zip.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+Class Description:
+Tests for the zlib wrapper: what Deflate writes, Inflate has to read back.
+
+Development Priority: LOW
+*/
+class DeflateTest {
+    @TempDir
+    File dir;
+
+    @AfterEach
+    void resetOptions() {
+        Deflate.level = Deflater.DEFAULT_COMPRESSION;
+        Deflate.strategy = Deflater.DEFAULT_STRATEGY;
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {-1, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9})
+    void roundTripsEveryLevel(int level) throws Exception {
+        Deflate.level = level;
+        byte[] nori = Synth.nori(16, true, 12, 3);
+        ByteBuffer wrapped = wrap(nori, "l" + level);
+        assertTrue(Inflate.isWrapped(wrapped), "level " + level);
+        assertEquals(0xB0A0, wrapped.getInt(0));
+        assertEquals(nori.length, wrapped.getInt(4));
+        assertEquals(wrapped.capacity() - 12, wrapped.getInt(8));
+        assertArrayEquals(nori, Inflate.inflate(wrapped).array(), "level " + level);
+    }
+
+    @Test
+    void roundTripsEveryStrategy() throws Exception {
+        byte[] nori = Synth.nori(8, false, 6, 2);
+        for (String name : new String[]{"default", "filtered", "huffman"}) {
+            assertTrue(Deflate.setStrategy(name));
+            ByteBuffer wrapped = wrap(nori, name);
+            assertTrue(Inflate.isWrapped(wrapped), name);
+            assertArrayEquals(nori, Inflate.inflate(wrapped).array(), name);
+        }
+        assertFalse(Deflate.setStrategy("fastest"));
+    }
+
+    @Test
+    void roundTripsMoreThanOneChunk() throws Exception {
+        int chunk = Deflate.chunk;
+        Deflate.chunk = 1000;
+        try {
+            byte[] nori = Synth.nori(24, false, 30, 3);
+            assertTrue(nori.length > 10 * Deflate.chunk);
+            assertArrayEquals(nori, Inflate.inflate(wrap(nori, "chunks")).array());
+        } finally {
+            Deflate.chunk = chunk;
+        }
+    }
+
+    @Test
+    void onlyTakesValidZlibHeaders() {
+        assertFalse(Inflate.isWrapped(ByteBuffer.wrap(Synth.nori(16, false, 2, 1))
+            .order(ByteOrder.LITTLE_ENDIAN)));
+        ByteBuffer bb = ByteBuffer.wrap(Synth.bac(new byte[100], 6));
+        assertTrue(Inflate.isWrapped(bb));
+        // check bits wrong
+        bb.put(13, (byte)(bb.get(13) + 1));
+        assertFalse(Inflate.isWrapped(bb));
+        // not deflate
+        bb.put(12, (byte)0x77).put(13, (byte)0x01);
+        assertFalse(Inflate.isWrapped(bb));
+    }
+
+    @Test
+    void doesntTrustTheActualSize() throws Exception {
+        byte[] nori = Synth.nori(16, false, 4, 1);
+        ByteBuffer bb = ByteBuffer.wrap(Synth.bac(nori, 9)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int actual : new int[]{Integer.MAX_VALUE, -5, 1}) {
+            bb.putInt(4, actual);
+            assertArrayEquals(nori, Inflate.inflate(bb).array(), "Actual size " + actual);
+        }
+    }
+
+    @Test
+    void rejectsTruncatedStreams() {
+        byte[] bac = Synth.bac(Synth.nori(16, false, 4, 1), 6);
+        ByteBuffer cut = ByteBuffer.wrap(java.util.Arrays.copyOf(bac, bac.length / 2))
+            .order(ByteOrder.LITTLE_ENDIAN);
+        assertThrows(DataFormatException.class, () -> Inflate.inflate(cut));
+    }
+
+    // Deflate.wrap on the bytes, & the wrapped file back
+    private ByteBuffer wrap(byte[] nori, String name) throws IOException {
+        File in = TestData.write(dir, name + ".nri", nori);
+        File out = new File(dir, name + ".bac");
+        Deflate.wrap(in, out);
+        return ByteBuffer.wrap(Files.readAllBytes(out.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,137 @@
+package com.github.tricksteronline;/*
+ManifestTest.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+Class Description:
+Tests for the extraction manifest & --incremental.
+
+Development Priority: LOW
+*/
+class ManifestTest {
+    @TempDir
+    File dir;
+    NORI nf;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        File nri = TestData.write(dir, "m.nri", Synth.nori(16, false, 3, 1));
+        nf = new NORI();
+        nf.setNFileVars(nri, 0);
+        Files.createDirectories(Paths.get(nf.exdir));
+    }
+
+    @Test
+    void savesAndLoads() throws IOException {
+        Manifest m = new Manifest(nf, false);
+        m.setBase(7);
+        m.add(0, 0xABCL, bmp("m.nri_0.bmp", 10), 10);
+        m.add(1, 0xDEFL, bmp("m.nri_1.bmp", 20), 20);
+        m.add(1, 0xDEFL, bmp("m.nri_1a.bmp", 30), 30);
+        m.save();
+
+        Manifest back = new Manifest(nf, false);
+        back.setBase(7);
+        assertTrue(back.upToDate(0, 0xABCL, nf.exdir));
+        assertTrue(back.upToDate(1, 0xDEFL, nf.exdir));
+        assertFalse(back.upToDate(1, 0xDEEL, nf.exdir));
+        assertFalse(back.upToDate(2, 0xABCL, nf.exdir));
+        assertEquals(2, back.skipped);
+        assertTrue(Manifest.upToDate(nf, false));
+        // E makes other files, so an e manifest doesn't count for it
+        assertFalse(Manifest.upToDate(nf, true));
+    }
+
+    @Test
+    void aChangedBaseRedoesEverything() throws IOException {
+        Manifest m = new Manifest(nf, false);
+        m.setBase(1);
+        m.add(0, 5, bmp("m.nri_0.bmp", 10), 10);
+        m.save();
+        Manifest back = new Manifest(nf, false);
+        back.setBase(2);
+        assertFalse(back.upToDate(0, 5, nf.exdir));
+    }
+
+    @Test
+    void missingOrResizedBmpIsNotUpToDate() throws IOException {
+        Manifest m = new Manifest(nf, false);
+        m.add(0, 5, bmp("m.nri_0.bmp", 10), 10);
+        m.add(1, 6, bmp("m.nri_1.bmp", 10), 10);
+        m.save();
+        Files.delete(Paths.get(nf.exdir, "m.nri_0.bmp"));
+        bmp("m.nri_1.bmp", 11);
+        Manifest back = new Manifest(nf, false);
+        assertFalse(back.upToDate(0, 5, nf.exdir));
+        assertFalse(back.upToDate(1, 6, nf.exdir));
+        assertFalse(Manifest.upToDate(nf, false));
+    }
+
+    @Test
+    void aNewHashReplacesTheOldFiles() throws IOException {
+        Manifest m = new Manifest(nf, false);
+        m.add(0, 5, bmp("a.bmp", 10), 10);
+        m.add(0, 6, bmp("b.bmp", 12), 12);
+        m.save();
+        List<String> lines = manifest();
+        assertEquals("bmp\t0\t6\tb.bmp\t12", lines.get(lines.size() - 1));
+    }
+
+    @Test
+    void badManifestIsIgnored() throws IOException {
+        bmp("m.nri_0.bmp", 10);
+        for (String bad : new String[]{"", "TNT-MANIFEST 0\n", Manifest.HEAD + "\nbmp\tx\t5\tm.nri_0.bmp\t10\n",
+                Manifest.HEAD + "\nbmp\t0\t5\tm.nri_0.bmp\n"}) {
+            Files.write(Paths.get(nf.exdir, Manifest.NAME), bad.getBytes(StandardCharsets.UTF_8));
+            assertFalse(new Manifest(nf, false).upToDate(0, 5, nf.exdir), bad);
+            assertFalse(Manifest.upToDate(nf, false), bad);
+        }
+    }
+
+    @Test
+    void incrementalExtractSkipsWhatIsThere() throws IOException {
+        String first = TestData.tnt("e", "--incremental", nf.nf.getPath());
+        assertTrue(first.contains("Up to date, skipped: 0 of 3"), first);
+        File[] bmps = new File(nf.exdir).listFiles((d, n) -> n.endsWith(".bmp"));
+        assertEquals(3, bmps.length);
+
+        assertTrue(TestData.tnt("e", "--incremental", nf.nf.getPath()).contains("Up to date: m.nri"));
+
+        // Only the missing one is made again
+        Arrays.sort(bmps);
+        byte[] old = Files.readAllBytes(bmps[1].toPath());
+        assertTrue(bmps[1].delete());
+        String again = TestData.tnt("e", "--incremental", nf.nf.getPath());
+        assertTrue(again.contains("Up to date, skipped: 2 of 3"), again);
+        assertArrayEquals(old, Files.readAllBytes(bmps[1].toPath()));
+    }
+
+    // Makes a BMP file of size bytes in the extraction directory
+    private String bmp(String name, int size) throws IOException {
+        Files.write(Paths.get(nf.exdir, name), new byte[size]);
+        return name;
+    }
+
+    private List<String> manifest() throws IOException {
+        return Files.readAllLines(Paths.get(nf.exdir, Manifest.NAME), StandardCharsets.UTF_8);
+    }
+}
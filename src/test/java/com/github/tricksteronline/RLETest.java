@@ -0,0 +1,166 @@
+package com.github.tricksteronline;/*
+RLETest.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.nio.*;
+import java.util.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+Class Description:
+Tests for the scanline RLE: Create.compress & Extract.decompress.
+
+Dev Notes:
+A decoded bitmap is checked against the same raw pixels put straight into a
+BMP (what an uncompressed file gets), so the bg runs have to come out as the
+bg colour in the right places, not just the right number of bytes.
+
+Development Priority: LOW
+*/
+class RLETest {
+    @ParameterizedTest
+    @ValueSource(ints = {8, 16, 24})
+    void roundTrips(int bpp) {
+        for (int i = 0; i < 40; i++) {
+            int w = Synth.w(i), h = Synth.h(i);
+            byte[] raw = Synth.pixels(bpp, w, h, i);
+            byte[] enc = Create.compress(raw, w, h, bpp / 8);
+            JBL lib = newJBL(bpp, w, h);
+            assertArrayEquals(direct(raw, lib), decoded(enc, enc.length, lib), w + "x" + h);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {8, 16, 24})
+    void matchesTheFileFormat(int bpp) {
+        // Same bytes as an encoder written straight from the format
+        for (int i = 0; i < 40; i++) {
+            int w = Synth.w(i), h = Synth.h(i);
+            byte[] raw = Synth.pixels(bpp, w, h, i);
+            assertArrayEquals(Synth.rle(raw, bpp, w, h),
+                Create.compress(raw, w, h, bpp / 8), w + "x" + h);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {8, 16, 24})
+    void handlesAllBgAndAllFg(int bpp) {
+        int w = 13, h = 3, Bpp = bpp / 8;
+        byte[] bg = new byte[w * h * Bpp], fg = new byte[w * h * Bpp];
+        for (int p = 0; p < w * h; p++) {
+            System.arraycopy(Synth.BG[Bpp], 0, bg, p * Bpp, Bpp);
+            Arrays.fill(fg, p * Bpp, (p + 1) * Bpp, (byte)(p + 1));
+        }
+        // A bg line is one run pair with no pixel data
+        assertEquals(h * (2 + 4), Create.compress(bg, w, h, Bpp).length);
+        assertEquals(h * (2 + 4 + w * Bpp), Create.compress(fg, w, h, Bpp).length);
+        for (byte[] raw : new byte[][]{bg, fg}) {
+            JBL lib = newJBL(bpp, w, h);
+            byte[] enc = Create.compress(raw, w, h, Bpp);
+            assertArrayEquals(direct(raw, lib), decoded(enc, enc.length, lib));
+        }
+    }
+
+    @Test
+    void splitsRunsLongerThanAShort() {
+        // The runs are signed shorts, so 70000 bg pixels take 3 pairs
+        int w = 70000, h = 2;
+        byte[] raw = new byte[w * h * 2];
+        for (int p = 0; p < w * h; p++) {
+            System.arraycopy(Synth.BG[2], 0, raw, p * 2, 2);
+        }
+        // & the 2nd line ends in a few fg pixels
+        for (int p = 2 * w - 5; p < 2 * w; p++) raw[p * 2] = (byte)p;
+        byte[] enc = Create.compress(raw, w, h, 2);
+        assertEquals(2 + 3 * 4, enc[0]);
+        assertEquals(2 + 3 * 4 + 5 * 2, enc[14]);
+        JBL lib = newJBL(16, w, h);
+        assertArrayEquals(direct(raw, lib), decoded(enc, enc.length, lib));
+    }
+
+    @Test
+    void leavesMissingScanlinesBlank() {
+        // A line that encodes nothing decodes to zeros, it isn't an error
+        JBL lib = newJBL(24, 2, 1);
+        byte[] enc = {2, 0};
+        assertArrayEquals(new byte[lib.newPixels().limit()], decoded(enc, enc.length, lib));
+    }
+
+    @Test
+    void rejectsTruncatedData() {
+        int w = 17, h = 9;
+        byte[] raw = Synth.pixels(16, w, h, 3);
+        byte[] enc = Create.compress(raw, w, h, 2);
+        JBL lib = newJBL(16, w, h);
+        for (int len : new int[]{0, 1, enc.length / 2, enc.length - 1}) {
+            assertRleError(enc, len, lib, null);
+        }
+    }
+
+    @Test
+    void rejectsScanlineEndPastData() {
+        // says 10 bytes, only 6 are there
+        byte[] enc = {10, 0, 0, 0, 2, 0, 7, 7};
+        assertRleError(enc, enc.length, newJBL(8, 2, 1), "encodedSize too big");
+    }
+
+    @Test
+    void rejectsRunsPastTheBitmap() {
+        // 3 bg + 2 fg in a 4x1 bitmap
+        byte[] enc = {8, 0, 3, 0, 2, 0, 5, 5};
+        assertRleError(enc, enc.length, newJBL(8, 4, 1), "run goes past w*h");
+        // a negative run can't be used to go backwards
+        byte[] neg = {6, 0, (byte)0xFF, (byte)0xFF, 1, 0};
+        assertRleError(neg, neg.length, newJBL(8, 4, 1), "run goes past w*h");
+    }
+
+    @Test
+    void rejectsRunsPastTheData() {
+        // 4 fg pixels in the last scanline, but the data stops after the run pair
+        byte[] enc = {6, 0, 0, 0, 4, 0};
+        assertRleError(enc, enc.length, newJBL(8, 4, 1), "run goes past dlen");
+    }
+
+    private static void assertRleError(byte[] enc, int len, JBL lib, String why) {
+        IllegalStateException ex = assertThrows(IllegalStateException.class,
+            () -> decoded(enc, len, lib), "len " + len);
+        assertTrue(ex.getMessage().startsWith("Bad RLE data"), ex.getMessage());
+        if (why != null) assertTrue(ex.getMessage().endsWith(why), ex.getMessage());
+    }
+
+    private static JBL newJBL(int bpp, int w, int h) {
+        JBL lib = new JBL();
+        lib.set16BitFmtIn(JBL.RGB555);
+        byte[][] pal = new byte[256][3];
+        for (int i = 0; i < 256; i++) pal[i] = new byte[]{(byte)i, (byte)(i * 3), (byte)(255 - i)};
+        lib.setPalette(JBL.packPalette(pal));
+        lib.setBmpVars(w, h, bpp);
+        return lib;
+    }
+
+    // The BMP pixels for raw as an uncompressed file would get them
+    private static byte[] direct(byte[] raw, JBL lib) {
+        ByteBuffer px = ByteBuffer.wrap(new byte[lib.newPixels().limit()]);
+        lib.putPixels(raw, 0, px, 0, lib.pixels);
+        return px.array();
+    }
+
+    private static byte[] decoded(byte[] enc, int len, JBL lib) {
+        ByteBuffer px = ByteBuffer.wrap(new byte[lib.newPixels().limit()]);
+        Extract.decompress(enc, 0, len, px, lib);
+        return px.array();
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.tricksteronline;/*
+TestData.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+/**
+Class Description:
+Helpers for the tests that work with files & whole TNT runs. The NORI files
+themselves come from Synth, in the test fixtures.
+
+Development Priority: LOW
+*/
+class TestData {
+    // Writes the bytes to dir/name, & returns the file
+    static File write(File dir, String name, byte[] bytes) throws IOException {
+        File f = new File(dir, name);
+        Files.write(f.toPath(), bytes);
+        return f;
+    }
+
+    // Runs the Analyzer on a NORI file, the way Main does
+    static NORI analyze(File file) throws IOException {
+        NORI nf = new NORI();
+        nf.setNFileVars(file, 0);
+        ByteBuffer bb = ByteBuffer.wrap(Files.readAllBytes(file.toPath()))
+            .order(ByteOrder.LITTLE_ENDIAN);
+        new Analyzer(bb, nf);
+        return nf;
+    }
+
+    // Runs TNT with its output captured, & its options put back after
+    static String tnt(String... args) throws IOException {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(log, true, "UTF-8"));
+        try {
+            Main.resetOptions();
+            Main.run(args);
+        } finally {
+            System.setOut(stdout);
+            Main.resetOptions();
+        }
+        return new String(log.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,228 @@
+package com.github.tricksteronline;/*
+Synth.java: this file is part of the TNT program.
+
+Copyright (C) 2014-2020 Libre Trickster Team
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+*/
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.zip.*;
+/**
+Class Description:
+Makes synthetic NORI data for the tests & the benchmarks, so they run anywhere,
+offline, without needing a copy of the game client.
+
+Dev Notes:
+Everything is made from a fixed seed, so every run gets the same input. The
+pixels are background runs broken up by foreground runs, with 'density' being
+roughly the share of each scanline that is foreground, like the sprites.
+The test files have bitmaps of all different sizes, odd widths included, and
+animations with different numbers of frames & planes (zero planes too), since
+those are what the offset tables get wrong. The benchmark files are the same,
+but with every bitmap one size. The RLE here is written out separately from
+Create's, so a test of one can't just be agreeing with itself.
+This is the test fixtures source set, the tests & the bench module both use it.
+
+Development Priority: LOW
+*/
+public class Synth {
+    // background pixel for each Bytes/px (index 0, RGB555 & RGB24 magenta)
+    public static final byte[][] BG = {{}, {0}, {0x1F, 0x7C}, {(byte)255, 0, (byte)255}};
+    // animation names, one of them not ASCII
+    public static final String[] NAMES = {"stand", "\uAC77\uAE30", "attack_01"};
+
+    // Raw top-down pixels, about half of each scanline in bg runs
+    public static byte[] pixels(int bpp, int w, int h, long seed) {
+        return pixels(bpp, w, h, 0.5, seed);
+    }
+
+    // Raw top-down pixels: w*h*(bpp/8) bytes
+    public static byte[] pixels(int bpp, int w, int h, double density, long seed) {
+        int Bpp = bpp / 8;
+        byte[] px = new byte[w * h * Bpp];
+        Random rnd = new Random(seed);
+        for (int y = 0; y < h; y++) {
+            int x = 0;
+            while (x < w) {
+                // alternate bg & fg runs of up to 1/4 of a scanline
+                int run = 1 + rnd.nextInt(Math.max(1, w / 4));
+                boolean fg = rnd.nextDouble() < density;
+                for (int i = 0; i < run && x < w; i++, x++) {
+                    int p = (y * w + x) * Bpp;
+                    for (int c = 0; c < Bpp; c++) {
+                        px[p + c] = fg ? (byte)(1 + rnd.nextInt(254)) : BG[Bpp][c];
+                    }
+                }
+            }
+        }
+        return px;
+    }
+
+    // Encodes raw pixels with the NORI scanline RLE: per line a size, then
+    // bg/fg run pairs
+    public static byte[] rle(byte[] px, int bpp, int w, int h) {
+        int Bpp = bpp / 8;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int y = 0; y < h; y++) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int x = 0;
+            while (x < w) {
+                int bg = 0, fg = 0;
+                while (x + bg < w && isBg(px, (y * w + x + bg) * Bpp, Bpp)) bg++;
+                while (x + bg + fg < w && !isBg(px, (y * w + x + bg + fg) * Bpp, Bpp)) fg++;
+                putShort(line, bg);
+                putShort(line, fg);
+                line.write(px, (y * w + x + bg) * Bpp, fg * Bpp);
+                x += bg + fg;
+            }
+            putShort(out, line.size() + 2);
+            out.write(line.toByteArray(), 0, line.size());
+        }
+        return out.toByteArray();
+    }
+
+    // Width & height of bitmap i of a test file
+    public static int w(int i) {
+        return 1 + (i * 7) % 23;
+    }
+
+    public static int h(int i) {
+        return 1 + (i * 5) % 17;
+    }
+
+    // A whole version 300 NORI file for the tests, a palette with 8 bpp
+    public static byte[] nori(int bpp, boolean rle, int numBMP, int anims) {
+        int[] ws = new int[numBMP], hs = new int[numBMP];
+        for (int i = 0; i < numBMP; i++) {
+            ws[i] = w(i);
+            hs[i] = h(i);
+        }
+        return nori(bpp, rle, ws, hs, 0.5, anims);
+    }
+
+    // A whole NORI file for the benchmarks: 1 animation, numBMP bitmaps of w*h
+    public static byte[] nori(int bpp, boolean rle, int numBMP, int w, int h, double density) {
+        int[] ws = new int[numBMP], hs = new int[numBMP];
+        Arrays.fill(ws, w);
+        Arrays.fill(hs, h);
+        return nori(bpp, rle, ws, hs, density, 1);
+    }
+
+    // A whole NORI file, bitmap i being ws[i]*hs[i]. Animation a has 1+a
+    // frames, & frame f has f%3 planes.
+    private static byte[] nori(int bpp, boolean rle, int[] ws, int[] hs, double density,
+            int anims) {
+        int numBMP = ws.length;
+        List<byte[]> data = new ArrayList<>();
+        int bmpBytes = 0;
+        for (int i = 0; i < numBMP; i++) {
+            byte[] px = pixels(bpp, ws[i], hs[i], density, i);
+            byte[] d = rle ? rle(px, bpp, ws[i], hs[i]) : px;
+            data.add(d);
+            bmpBytes += 28 + d.length;
+        }
+        boolean pal = (bpp == 8);
+        int xfb = 224, palSize = pal ? 800 : 0;
+        int gsize = 44 + palSize + 4 * numBMP + bmpBytes;
+        ByteArrayOutputStream anim = new ByteArrayOutputStream();
+        int[] animOffsets = new int[anims];
+        for (int a = 0; a < anims; a++) {
+            animOffsets[a] = anim.size();
+            int frames = 1 + a;
+            ByteBuffer ab = le(32 + 4 + frames * 4 + frames * (8 + 3 * 28 + xfb));
+            ab.put(Arrays.copyOf(NAMES[a % NAMES.length].getBytes(Charset.forName("EUC-KR")), 32));
+            ab.putInt(frames);
+            for (int f = 0, off = 0; f < frames; f++) {
+                ab.putInt(off);
+                off += 8 + (f % 3) * 28 + xfb;
+            }
+            for (int f = 0; f < frames; f++) {
+                int planes = f % 3;
+                ab.putInt(10 * (f + 1)).putInt(planes);
+                for (int p = 0; p < planes; p++) {
+                    ab.putInt((a + f + p) % numBMP).putInt(p - 5).putInt(f + 3);
+                    ab.putInt(100).putInt(p % 2).putInt(f % 4).putInt(14);
+                }
+                for (int x = 0; x < xfb; x++) ab.put((byte)(x + f));
+            }
+            anim.write(ab.array(), 0, ab.position());
+        }
+        int animSize = 4 * anims + anim.size();
+        int fsize = 40 + gsize + animSize;
+        ByteBuffer bb = le(fsize);
+        // NORI Header
+        bb.putInt(1230131022).putInt(300).putInt(1).putInt(2).putInt(-3);
+        bb.putInt(4).putInt(5).putInt(anims).putInt(fsize - gsize).putInt(fsize);
+        // GAWI Header
+        bb.putInt(1230455111).putInt(300).putInt(bpp).putInt(rle ? 1 : 0);
+        bb.putInt(pal ? 1 : 0).putInt(0).putInt(0).putInt(0).putInt(0);
+        bb.putInt(numBMP).putInt(gsize);
+        // Palette
+        if (pal) {
+            bb.putInt(1598832976).putInt(100).putInt(1).putInt(2).putInt(3);
+            bb.putInt(4).putInt(0).putInt(palSize);
+            Random rnd = new Random(8);
+            for (int i = 0; i < 768; i++) bb.put((byte)rnd.nextInt());
+        }
+        // BMP Offsets (RLE files leave out the 28 byte headers)
+        for (int i = 0, off = 0; i < numBMP; i++) {
+            bb.putInt(rle ? off - i * 28 : off);
+            off += 28 + data.get(i).length;
+        }
+        // BMP Data
+        for (int i = 0; i < numBMP; i++) {
+            byte[] d = data.get(i);
+            bb.putInt(1).putInt(d.length).putInt(ws[i]).putInt(hs[i]);
+            bb.putInt(0).putInt(i % 5).putInt(i % 3).put(d);
+        }
+        // Animations
+        for (int off : animOffsets) bb.putInt(off);
+        bb.put(anim.toByteArray());
+        return bb.array();
+    }
+
+    // Wraps a NORI file in the zlib layout of the compressed .bac files
+    public static byte[] bac(byte[] nori) {
+        return bac(nori, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public static byte[] bac(byte[] nori, int level) {
+        Deflater dfl = new Deflater(level);
+        dfl.setInput(nori);
+        dfl.finish();
+        ByteArrayOutputStream z = new ByteArrayOutputStream();
+        byte[] buf = new byte[65536];
+        while (!dfl.finished()) z.write(buf, 0, dfl.deflate(buf));
+        dfl.end();
+        ByteBuffer bb = le(12 + z.size());
+        bb.putInt(0xB0A0).putInt(nori.length).putInt(z.size()).put(z.toByteArray());
+        return bb.array();
+    }
+
+    public static ByteBuffer le(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static boolean isBg(byte[] px, int p, int Bpp) {
+        for (int c = 0; c < Bpp; c++) {
+            if (px[p + c] != BG[Bpp][c]) return false;
+        }
+        return true;
+    }
+
+    private static void putShort(ByteArrayOutputStream out, int v) {
+        out.write(v);
+        out.write(v >> 8);
+    }
+}